@@ -0,0 +1,121 @@
+package calculator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+final class BatchRunner {
+
+  /**
+   * Evaluates commands line by line without a window, for example "factor 123456789" or
+   * "binom 1000 500" (see Command), and writes one result line per command in input order. The
+   * commands are evaluated on a pool of worker threads, but at most a few per thread are in
+   * flight at any time: the oldest one is written out before the next line is read, so memory
+   * stays constant however long the input is. Results are gathered in a byte buffer that is
+   * written to the output channel when it fills up, or whenever the next result is not ready yet
+   * so that output keeps streaming when the input arrives slowly. Blank lines and lines starting
+   * with # are skipped.
+   */
+
+  // Commands in flight for each worker thread
+  private static final int PENDING_PER_THREAD = 4;
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final byte[] NEWLINE = {'\n'};
+
+  private final CalcFunctions functions = new CalcFunctions();
+  private final int threads;
+  private final long timeLimit;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+  /**
+   * @param threads The number of worker threads
+   * @param timeLimit Milliseconds allowed for each command, or 0 for no limit. A limit lifts the
+   * digit ceilings of the functions it bounds, see CalcFunctions.withBudget
+   */
+  BatchRunner(int threads, long timeLimit) {
+    this.threads = threads;
+    this.timeLimit = timeLimit;
+  }
+
+  /**
+   * Evaluates every command from in and writes the results to out.
+   * @param in The commands, one per line
+   * @param out Receives the results, one per line, in the order of the commands
+   * @throws IOException if reading or writing fails
+   */
+  void run(BufferedReader in, WritableByteChannel out) throws IOException {
+    ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+      Thread t = new Thread(r, "batch-worker");
+      t.setDaemon(true);
+      return t;
+    });
+    Deque<Future<String>> pending = new ArrayDeque<Future<String>>();
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        String command = line.trim();
+        if (command.isEmpty() || command.startsWith("#"))
+          continue;
+        pending.add(pool.submit(() -> Command.evaluate(functions, command, budget())));
+        if (pending.size() >= threads * PENDING_PER_THREAD)
+          write(pending.remove(), out);
+      }
+      while (!pending.isEmpty())
+        write(pending.remove(), out);
+      flush(out);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private Budget budget() {
+    return timeLimit > 0 ? Budget.ofMillis(timeLimit) : Budget.UNLIMITED;
+  }
+
+  /**
+   * Waits for a result and appends it to the buffer, first flushing what is already there if
+   * the result is not ready yet.
+   */
+  private void write(Future<String> result, WritableByteChannel out) throws IOException {
+    if (!result.isDone())
+      flush(out);
+    String text;
+    try {
+      text = result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for a result", e);
+    } catch (ExecutionException e) {
+      text = "error: " + e.getCause();
+    }
+    put(text.getBytes(StandardCharsets.UTF_8), out);
+    put(NEWLINE, out);
+  }
+
+  private void put(byte[] bytes, WritableByteChannel out) throws IOException {
+    if (bytes.length > buffer.remaining())
+      flush(out);
+    if (bytes.length > buffer.capacity()) {
+      ByteBuffer large = ByteBuffer.wrap(bytes);
+      while (large.hasRemaining())
+        out.write(large);
+    } else {
+      buffer.put(bytes);
+    }
+  }
+
+  private void flush(WritableByteChannel out) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining())
+      out.write(buffer);
+    buffer.clear();
+  }
+}
@@ -0,0 +1,138 @@
+package calculator;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+final class BigDecimalMath {
+
+  /**
+   * Elementary functions evaluated to an arbitrary number of significant digits, for the places
+   * where an exact integer is recovered by rounding a high precision real computation. Every
+   * function works internally with a few guard digits and rounds the result to the requested
+   * MathContext.
+   */
+
+  private static final int GUARD_DIGITS = 10;
+
+  private BigDecimalMath() {
+  }
+
+  /**
+   * Computes pi with Machin's formula, pi = 16 * atan(1/5) - 4 * atan(1/239).
+   * @param mc The precision of the result
+   * @return pi
+   */
+  static BigDecimal pi(MathContext mc) {
+    MathContext work = new MathContext(mc.getPrecision() + GUARD_DIGITS, RoundingMode.HALF_EVEN);
+    BigDecimal pi = arctanInverse(5, work).multiply(BigDecimal.valueOf(16))
+        .subtract(arctanInverse(239, work).multiply(BigDecimal.valueOf(4)));
+    return pi.round(mc);
+  }
+
+  /**
+   * Computes atan(1/x) with its Taylor series, for an integer x > 1. The series is summed in fixed
+   * point with BigInteger, since every step only divides by a small integer, which takes linear
+   * time where a BigDecimal division to the full precision does not.
+   */
+  private static BigDecimal arctanInverse(int x, MathContext mc) {
+    int scale = mc.getPrecision() + 1;
+    BigInteger xSquared = BigInteger.valueOf((long) x * x);
+    BigInteger power = BigInteger.TEN.pow(scale).divide(BigInteger.valueOf(x)); // 1 / x^(2k + 1)
+    BigInteger sum = power;
+    for (int k = 1; power.signum() > 0; k++) {
+      power = power.divide(xSquared);
+      BigInteger term = power.divide(BigInteger.valueOf(2L * k + 1));
+      sum = (k % 2 == 1) ? sum.subtract(term) : sum.add(term);
+    }
+    return new BigDecimal(sum, scale);
+  }
+
+  /**
+   * Computes e^x. The argument is halved until it is below 1, and then about sqrt(precision) more
+   * times, so the Taylor series needs few terms, and the result is squared back up, with extra
+   * digits to cover the squarings.
+   * @param x Any real number
+   * @param mc The precision of the result
+   * @return e^x
+   */
+  static BigDecimal exp(BigDecimal x, MathContext mc) {
+    if (x.signum() < 0)
+      return BigDecimal.ONE.divide(exp(x.negate(), mc), mc);
+    int halvings = Math.max(0, x.toBigInteger().bitLength() + 1)
+        + (int) Math.sqrt(mc.getPrecision());
+    MathContext work = new MathContext(mc.getPrecision() + GUARD_DIGITS + halvings / 3 + 1,
+        RoundingMode.HALF_EVEN);
+    BigDecimal reduced = x.divide(BigDecimal.valueOf(2).pow(halvings), work);
+    BigDecimal sum = BigDecimal.ONE, term = BigDecimal.ONE;
+    BigDecimal epsilon = BigDecimal.ONE.movePointLeft(work.getPrecision() + 1);
+    for (int k = 1; term.abs().compareTo(epsilon) > 0; k++) {
+      term = term.multiply(reduced, work).divide(BigDecimal.valueOf(k), work);
+      sum = sum.add(term, work);
+    }
+    for (int i = 0; i < halvings; i++)
+      sum = sum.multiply(sum, work);
+    return sum.round(mc);
+  }
+
+  /**
+   * Computes cos(x), after reducing x modulo 2 * pi.
+   * @param x Any real number
+   * @param mc The precision of the result
+   * @return cos(x)
+   */
+  static BigDecimal cos(BigDecimal x, MathContext mc) {
+    MathContext work = reducedContext(x, mc);
+    return taylor(reduce(x, work), BigDecimal.ONE, 0, work).round(mc);
+  }
+
+  /**
+   * Computes sin(x), after reducing x modulo 2 * pi.
+   * @param x Any real number
+   * @param mc The precision of the result
+   * @return sin(x)
+   */
+  static BigDecimal sin(BigDecimal x, MathContext mc) {
+    MathContext work = reducedContext(x, mc);
+    BigDecimal r = reduce(x, work);
+    return taylor(r, r, 1, work).round(mc);
+  }
+
+  /**
+   * Sums the alternating series first - first * x^2 / ((k + 1)(k + 2)) + ..., which is the
+   * Taylor series of cos for first = 1, k = 0 and of sin for first = x, k = 1.
+   */
+  private static BigDecimal taylor(BigDecimal x, BigDecimal first, int k, MathContext mc) {
+    BigDecimal xSquared = x.multiply(x, mc).negate();
+    BigDecimal sum = first, term = first;
+    BigDecimal epsilon = BigDecimal.ONE.movePointLeft(mc.getPrecision() + 1);
+    while (term.abs().compareTo(epsilon) > 0) {
+      term = term.multiply(xSquared, mc).divide(BigDecimal.valueOf((long) (k + 1) * (k + 2)), mc);
+      sum = sum.add(term, mc);
+      k += 2;
+    }
+    return sum;
+  }
+
+  /**
+   * Reduces x into [-pi, pi]. Arguments already in range are returned as they are, which spares
+   * computing pi.
+   */
+  private static BigDecimal reduce(BigDecimal x, MathContext mc) {
+    if (x.abs().compareTo(BigDecimal.valueOf(3)) <= 0)
+      return x;
+    BigDecimal twoPi = pi(mc).multiply(BigDecimal.valueOf(2));
+    BigInteger turns = x.divide(twoPi, mc).setScale(0, RoundingMode.HALF_EVEN).toBigInteger();
+    return x.subtract(twoPi.multiply(new BigDecimal(turns)), mc);
+  }
+
+  /**
+   * Working precision for cos and sin, with enough integer digits to survive the reduction.
+   */
+  private static MathContext reducedContext(BigDecimal x, MathContext mc) {
+    int integerDigits = Math.max(0, x.precision() - x.scale());
+    return new MathContext(mc.getPrecision() + GUARD_DIGITS + integerDigits,
+        RoundingMode.HALF_EVEN);
+  }
+}
@@ -0,0 +1,102 @@
+package calculator;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public final class Budget {
+
+  /**
+   * A cancellation token with an optional wall-clock deadline, checked by the long loops of
+   * CalcFunctions and the factoring and counting classes it uses. A budget is installed for the
+   * calling thread with CalcFunctions.withBudget, and the loops read it back with current(), so
+   * that it does not have to be passed through every method. A budget is exhausted once its
+   * deadline passes or once the thread running the computation is interrupted, which is how the
+   * interface and the server cancel a computation. Budgets are immutable, so the shared UNLIMITED
+   * instance cannot be exhausted for other threads. Work handed to other threads is waited for
+   * with get, which gives up as soon as the budget is exhausted.
+   */
+
+  // Milliseconds between checks of the deadline while waiting on another thread
+  private static final long POLL_INTERVAL = 50;
+
+  /**
+   * A budget that never runs out, though it is still exhausted by interrupting the thread.
+   */
+  public static final Budget UNLIMITED = new Budget(Long.MAX_VALUE);
+
+  private static final ThreadLocal<Budget> CURRENT = ThreadLocal.withInitial(() -> UNLIMITED);
+
+  private final long deadline; // System.nanoTime() value, or Long.MAX_VALUE for none
+
+  private Budget(long deadline) {
+    this.deadline = deadline;
+  }
+
+  /**
+   * Creates a budget that runs out after the given time.
+   * @param millis The number of milliseconds from now
+   * @return The new budget
+   */
+  public static Budget ofMillis(long millis) {
+    return new Budget(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+  }
+
+  /**
+   * Determines whether the budget has a deadline, in which case the digit ceilings of the
+   * functions it guards are lifted, since the deadline bounds their running time instead.
+   * @return true if the budget runs out by itself
+   */
+  public boolean isBounded() {
+    return deadline != Long.MAX_VALUE;
+  }
+
+  /**
+   * Determines whether the computation should stop.
+   * @return true if the deadline has passed or the current thread was interrupted
+   */
+  public boolean isExhausted() {
+    return Thread.currentThread().isInterrupted()
+        || (deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0);
+  }
+
+  /**
+   * Waits for work running on another thread, but no longer than the budget allows.
+   * @param future The work to wait for
+   * @return The result of the work
+   * @throws InterruptedException if the current thread was interrupted while waiting
+   * @throws ExecutionException if the work failed
+   * @throws TimeoutException if the budget ran out first
+   */
+  <T> T get(Future<T> future) throws InterruptedException, ExecutionException,
+      TimeoutException {
+    while (true) {
+      if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0)
+        throw new TimeoutException();
+      try {
+        return future.get(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        continue;
+      }
+    }
+  }
+
+  /**
+   * The budget installed for the current thread, or UNLIMITED if there is none.
+   */
+  static Budget current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Installs a budget for the current thread.
+   * @param budget The new budget
+   * @return The budget it replaces, to be restored afterwards
+   */
+  static Budget install(Budget budget) {
+    Budget previous = CURRENT.get();
+    CURRENT.set(budget);
+    return previous;
+  }
+}
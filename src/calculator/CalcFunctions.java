@@ -2,7 +2,7 @@ package calculator;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.BitSet;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -11,6 +11,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 public class CalcFunctions {  
   
@@ -18,34 +23,84 @@ public class CalcFunctions {
    * Class which contains only mathematical functions with no consideration to interface.
    * Functions that return BigIntegers or Strings are to be used directly by CalcInterface,
    * and thus are public. null is returned when the calculation is mathematically invalid
-   * or exceeds reasonable computational limits.
+   * or exceeds reasonable computational limits. Long loops check the Budget of the calling
+   * thread and give up with null once it runs out, which happens when the thread is interrupted
+   * or a budget installed with withBudget reaches its deadline. Under a budget with a deadline,
+   * the digit ceilings of the functions whose work it bounds are lifted.
    */
   
-  private List<List<BigInteger>> setPartitionTable;
-  private List<BigInteger> setPartitionList;
-  private List<List<BigInteger>> intPartitionTable;
-  private List<BigInteger> intPartitionList;
+  // The tables below may be shared between threads. They are replaced rather than modified, so
+  // readers never wait, and threads that extend a table take the lock of that table.
+  private final SetPartitionTable setPartitions;
+  private volatile BigInteger[][] intPartitionTable;
+  private final Object intPartitionTableLock = new Object();
+  private volatile BigInteger[] intPartitionNumbers;
+  private final Object intPartitionNumbersLock = new Object();
   
-  private BigInteger largestChecked;
-  private TreeSet<BigInteger> primes;
-  private TreeMap<BigInteger, List<BigInteger>> witnesses;
+  private final PrimeTable primes;
+  private final FactorizationCache factorizations;
+  private final TreeMap<BigInteger, List<BigInteger>> witnesses;
   
   private final BigInteger TWO = BigInteger.valueOf(2);
   private final BigInteger THREE = BigInteger.valueOf(3);
   private final BigInteger FIVE = BigInteger.valueOf(5);
   
   private final BigInteger POWER_LIMIT = new BigInteger("99999");
-  private final BigInteger FACTORIZATION_LIMIT = new BigInteger("999999999999");
+  private final BigInteger FACTORIZATION_LIMIT =
+      new BigInteger(new String(new char[60]).replace("\0", "9")); // 60 digit limit
+  // Under a time limit factoring may go this far, as it would not finish in practice beyond it
+  private final BigInteger TIMED_FACTORIZATION_LIMIT =
+      new BigInteger(new String(new char[90]).replace("\0", "9")); // 90 digit limit
   private final BigInteger MERSENNE_LIMIT =
-      new BigInteger(new String(new char[1000]).replace("\0", "9")); // 1000 digit limit
-  private final BigInteger SEQUENCE_LIMIT = new BigInteger("9999"); // Includes factorials
-  private final BigInteger PRIME_GEN_LIMIT = new BigInteger("9999999");
+      new BigInteger(new String(new char[20000]).replace("\0", "9")); // 20000 digit limit
+  private final BigInteger SEQUENCE_LIMIT = new BigInteger("9999");
+  private final BigInteger FACTORIAL_LIMIT = new BigInteger("999999");
+  private final BigInteger FIBONACCI_LIMIT = new BigInteger("9999999");
+  // Largest prime power factor of the modulus for binomialMod, which tabulates that many products
+  private final BigInteger BINOMIAL_MOD_LIMIT = new BigInteger("1000000");
+  private final BigInteger PRIME_COUNT_LIMIT = new BigInteger("9999999999999999");
+  private final BigInteger PRIMORIAL_LIMIT = new BigInteger("999999");
   private final BigInteger INT_PARTITION_LIMIT = new BigInteger("999");
-  private final BigInteger SET_PARTITION_LIMIT = new BigInteger("600");
+  private final BigInteger PARTITION_LIMIT = new BigInteger("9999999");
+  private final BigInteger MODULAR_PARTITION_LIMIT = new BigInteger("99999");
+  private final BigInteger SET_PARTITION_LIMIT = new BigInteger("2000");
   private final BigInteger QUAD_RESIDUE_LIMIT = new BigInteger("99999");
+  private final BigInteger PROBABLE_PRIME_LIMIT =
+      new BigInteger(new String(new char[2000]).replace("\0", "9"));
+  private final BigInteger CERTIFICATE_LIMIT =
+      new BigInteger(new String(new char[300]).replace("\0", "9"));
+  // stringifyPrime only tries to prove probable primes up to here, where proofs take about a
+  // second, rather than stall every larger one for the whole PROOF_TIME_LIMIT
+  private final BigInteger AUTOMATIC_PROOF_LIMIT =
+      new BigInteger(new String(new char[60]).replace("\0", "9"));
   private final BigInteger ISQRT_LIMIT =
       new BigInteger(new String(new char[2000]).replace("\0", "9")); 
   
+  private final int TRIAL_DIVISION_LIMIT = 4096;
+  // Bounds of the factorization cache, and the size below which factoring is cheaper than caching
+  private final int FACTOR_CACHE_ENTRIES = 1024;
+  private final long FACTOR_CACHE_BYTES = 1 << 20;
+  private final int FACTOR_CACHE_MIN_BITS = 40;
+  // Rows of Stirling numbers kept after use, each holding up to SET_PARTITION_LIMIT numbers
+  private final int STIRLING_CACHE_ROWS = 8;
+  // p(n) up to here is kept in a table from the pentagonal recurrence, beyond it p(n) comes from
+  // the Rademacher series
+  private final int PARTITION_TABLE_LIMIT = 20000;
+  // Covers the primorial limit, at 4 bytes for each of the 82025 primes below it
+  private final int PRIME_TABLE_LIMIT = 1 << 20;
+  // Enough for rho to find factors up to about 10 digits before the elliptic curve method
+  private final long RHO_ITERATION_LIMIT = 1 << 17;
+  // Composites with at least this many digits are sieved rather than left to elliptic curves
+  private final int QUADRATIC_SIEVE_DIGITS = 40;
+  // Mersenne exponents from here on are squared with a floating point transform
+  private final int MERSENNE_TRANSFORM_LIMIT = 128;
+  // Largest rounding error of the transform that is still trusted to round correctly
+  private final double MAX_ROUNDING_ERROR = 0.4;
+  // Milliseconds to wait for a primality proof before settling for a probable prime
+  private final long PROOF_TIME_LIMIT = 5000;
+  
+  private final PrimalityProver prover = new PrimalityProver(this::isProbablePrime);
+  
   /**
    * All numbers less than the the leftmost integer can be unconditionally confirmed to be prime or
    * composite using the rest of the numbers (witnesses) in the list. Used for the Miller-Rabin
@@ -69,23 +124,13 @@ public class CalcFunctions {
       };
   
   public CalcFunctions() {
-    setPartitionTable = new ArrayList<List<BigInteger>>();
-    setPartitionTable.add(new ArrayList<BigInteger>());
-    setPartitionTable.get(0).add(BigInteger.ONE);
-    setPartitionList = new ArrayList<BigInteger>();
-    setPartitionList.add(BigInteger.ONE);
+    setPartitions = new SetPartitionTable(STIRLING_CACHE_ROWS);
+    factorizations = new FactorizationCache(FACTOR_CACHE_ENTRIES, FACTOR_CACHE_BYTES);
     
-    intPartitionTable = new ArrayList<List<BigInteger>>();
-    intPartitionTable.add(new ArrayList<BigInteger>());
-    intPartitionTable.get(0).add(BigInteger.ONE);
-    intPartitionList = new ArrayList<BigInteger>();
-    intPartitionList.add(BigInteger.ONE);
+    intPartitionTable = new BigInteger[][] {{BigInteger.ONE}};
+    intPartitionNumbers = new BigInteger[] {BigInteger.ONE};
         
-    primes = new TreeSet<BigInteger>();
-    primes.add(TWO);
-    primes.add(THREE);
-    primes.add(FIVE);
-    largestChecked = FIVE;
+    primes = new PrimeTable(PRIME_TABLE_LIMIT);
     
     witnesses = new TreeMap<BigInteger, List<BigInteger>>();
     readWitnesses();
@@ -109,6 +154,42 @@ public class CalcFunctions {
     }
   }
 
+  /**
+   * Runs a computation under a budget, which the long loops of this class check for
+   * interruption and for its deadline. A budget with a deadline also lifts the digit ceilings of
+   * the Lucas-Lehmer test and derangements, so that their inputs are bounded by the time allowed
+   * instead, and raises that of factoring from 60 to 90 digits. Ceilings that protect memory, such
+   * as those of the factorial and quadratic residues, still apply, as does that of partitions,
+   * whose Rademacher terms run high precision series that do not check the budget.
+   * @param budget The budget for the computation
+   * @param work The computation, typically a call to a method of this class
+   * @return The result of the computation, usually null if the budget ran out
+   */
+  public <T> T withBudget(Budget budget, Supplier<T> work) {
+    Budget previous = Budget.install(budget);
+    try {
+      return work.get();
+    } finally {
+      Budget.install(previous);
+    }
+  }
+
+  /**
+   * Determines whether the current budget has a deadline, in which case the time-bounded
+   * functions ignore their digit ceilings.
+   */
+  private boolean timeBounded() {
+    return Budget.current().isBounded();
+  }
+
+  /**
+   * The largest number factored: the factoring functions take minutes near 90 digits, so without
+   * a deadline they stop at 60.
+   */
+  private BigInteger factorizationLimit() {
+    return timeBounded() ? TIMED_FACTORIZATION_LIMIT : FACTORIZATION_LIMIT;
+  }
+
   /**
    * Wrapper for the BigInteger divide function, to check for division by zero.
    * @param x Dividend
@@ -174,6 +255,8 @@ public class CalcFunctions {
   public BigInteger isqrt(BigInteger n) {
     if (n.signum() != 1 || n.compareTo(ISQRT_LIMIT) > 0)
       return null;
+    if (n.bitLength() < 63)
+      return BigInteger.valueOf(LongArithmetic.isqrt(n.longValue()));
     BigInteger x = n, y = (x.add(n.divide(x)).divide(TWO));
     while (x.compareTo(y) > 0) {
       x = y;
@@ -195,38 +278,75 @@ public class CalcFunctions {
   }
 
   /**
-   * Calculates the product of all integers less than or equal to x, by iterative multiplication.
+   * Calculates the product of all integers less than or equal to x with Luschny's prime swing
+   * algorithm. The power of 2 in x! is x minus the number of ones in its binary form, and the odd
+   * part satisfies oddFactorial(n) = oddFactorial(n / 2)^2 * oddSwing(n), where the swing
+   * n! / (n / 2)!^2 is a product of prime powers read off the prime table. Every multiplication
+   * is then either a squaring or a product of similar sized numbers.
    * @param x The integer to calculate the factorial of
-   * @return x!, or null if x < 0 or x > SEQUENCE_LIMIT;
+   * @return x!, or null if x < 0 or x > FACTORIAL_LIMIT;
    */
   public BigInteger factorial(BigInteger x) {
-    if (x.compareTo(SEQUENCE_LIMIT) > 0)
+    if (x.compareTo(FACTORIAL_LIMIT) > 0)
       return null;
     if (x.compareTo(BigInteger.ZERO) < 0)
       return null;
-    BigInteger r = BigInteger.ONE;
-    for (BigInteger i = TWO; i.compareTo(x) < 1; i = i.add(BigInteger.ONE)) {
-      r = r.multiply(i);
+    int n = x.intValue();
+    return oddFactorial(n).shiftLeft(n - Integer.bitCount(n));
+  }
+
+  /**
+   * The odd part of n!.
+   */
+  private BigInteger oddFactorial(int n) {
+    if (n < 3)
+      return BigInteger.ONE;
+    BigInteger half = oddFactorial(n / 2);
+    return half.multiply(half).multiply(oddSwing(n));
+  }
+
+  /**
+   * The odd part of the swing n! / (n / 2)!^2. The exponent of a prime p is the number of odd
+   * quotients n / p^k, so primes above sqrt(n) appear at most once and the primes between n / 3
+   * and n / 2 not at all.
+   */
+  private BigInteger oddSwing(int n) {
+    long[] factors = new long[primes.pi(n)];
+    int count = 0;
+    for (int i = 1; i < primes.size() && primes.get(i) <= n; i++) {
+      long p = primes.get(i);
+      long power = 1;
+      if (p * p > n) {
+        if ((n / p & 1) == 1)
+          power = p;
+      } else {
+        for (long q = n / p; q > 0; q /= p) {
+          if ((q & 1) == 1)
+            power *= p;
+        }
+      }
+      if (power > 1)
+        factors[count++] = power;
     }
-    return r;
+    return ProductTree.product(factors, 0, count);
   }
   
   /**
    * Calculates the product of all integers with the same parity (odd or even) less than or equal
-   * to x, by iterative multiplication. x!! will always be less than or equal to x!.
+   * to x. For even x this is 2^(x/2) (x/2)!, and for odd x the odd numbers are multiplied in a
+   * product tree. x!! will always be less than or equal to x!.
    * @param x The integer to calculate the double factorial of
-   * @return x!!, or null if x < 0 or x > SEQUENCE_LIMIT;
+   * @return x!!, or null if x < 0 or x > FACTORIAL_LIMIT;
    */
   public BigInteger doubleFactorial(BigInteger x) {
-    if (x.compareTo(SEQUENCE_LIMIT) > 0)
+    if (x.compareTo(FACTORIAL_LIMIT) > 0)
       return null;
     if (x.compareTo(BigInteger.ZERO) < 0)
       return null;
-    BigInteger r = BigInteger.ONE;
-    for (BigInteger i = TWO.add(x.mod(TWO)); i.compareTo(x) < 1; i = i.add(TWO)) {
-      r = r.multiply(i);
-    }
-    return r;
+    long n = x.longValue();
+    if (n % 2 == 0)
+      return factorial(BigInteger.valueOf(n / 2)).shiftLeft((int) (n / 2));
+    return ProductTree.rangeProduct(1, n, 2);
   }
   
   /**
@@ -234,10 +354,10 @@ public class CalcFunctions {
    * its original position, using the recursive formula:
    * !n = (n - 1) * (!(n - 1) + !(n - 2))
    * @param x The integer to count the number of derangements of
-   * @return !n, or null if x < 0 or x > SEQUENCE_LIMIT
+   * @return !n, or null if x < 0, x > SEQUENCE_LIMIT or the budget ran out
    */
   public BigInteger derangement(BigInteger x) {
-    if (x.compareTo(SEQUENCE_LIMIT) > 0)
+    if (x.compareTo(SEQUENCE_LIMIT) > 0 && !timeBounded())
       return null;
     if (x.compareTo(BigInteger.ZERO) < 0)
       return null;
@@ -249,6 +369,8 @@ public class CalcFunctions {
     // r1 indicates the previous value, r2 indicates the value from two previous positions
     BigInteger r = BigInteger.ONE, r1 = BigInteger.ZERO, r2 = BigInteger.ONE;
     for (BigInteger i = TWO; i.compareTo(x) < 1; i = i.add(BigInteger.ONE)) {
+      if (Budget.current().isExhausted())
+        return null;
       r = (i.subtract(BigInteger.ONE)).multiply(r1.add(r2));
       r2 = r1;
       r1 = r;
@@ -258,62 +380,176 @@ public class CalcFunctions {
   
   /**
    * Calculates the number of ordered subsets of size k one can choose from a set of size n.
-   * Can be computed by the formula P(n, k) = n!/(n-k)!, or by multiplying iterative from k to n.
+   * Can be computed by the formula P(n, k) = n!/(n-k)!, or as the product tree of the integers
+   * from n - k + 1 to n.
    * @param n Size of set
    * @param k Size of ordered subset
    * @return P(n, k), or null if n exceeds the limit or if n or k are negative
    */
   public BigInteger permutation(BigInteger n, BigInteger k) {
-    if (n.compareTo(SEQUENCE_LIMIT) > 0)
+    if (n.compareTo(FACTORIAL_LIMIT) > 0)
       return null;
     if (n.signum() == -1 || k.signum() == -1)
       return null;
     if (k.compareTo(n) > 0)
       return BigInteger.ZERO;
-    BigInteger r = BigInteger.ONE;
-    for (BigInteger i = k; i.compareTo(n) < 1; i = i.add(BigInteger.ONE)) {
-      r = r.multiply(i);
-    }
-    return r;
+    return ProductTree.rangeProduct(n.longValue() - k.longValue() + 1, n.longValue(), 1);
   }
 
   /**
-   * Calculates the binomial coefficient of n and k, often defined as C(n, k) = n!/(k! * (n - k!)),
-   * but can be more efficiently computed using a multiplicative formula. Defines the number of ways
-   * to choose k elements from a set of size n. The binomial coefficient of n, k and n, n - k are
-   * equivalent.
+   * Calculates the binomial coefficient of n and k, often defined as C(n, k) = n!/(k! * (n - k!)).
+   * Rather than dividing two large products, C(n, k) is assembled from its prime factorization:
+   * by Kummer's theorem the exponent of a prime p is the number of carries when adding k and
+   * n - k in base p, which is the sum of floor(n/p^i) - floor(k/p^i) - floor((n - k)/p^i), and
+   * the prime powers are multiplied in a product tree. Defines the number of ways to choose k
+   * elements from a set of size n. The binomial coefficient of n, k and n, n - k are equivalent.
    * @param n The size of the set
    * @param k The number of elements to choose
    * @return C(n, k), or null if n exceeds the limit or if n or k are negative
    */
   public BigInteger binomialCoefficient(BigInteger n, BigInteger k) {
-    if (n.compareTo(SEQUENCE_LIMIT) > 0)
+    if (n.compareTo(FACTORIAL_LIMIT) > 0)
       return null;
     if (n.signum() == -1 || k.signum() == -1)
       return null;
     if (k.compareTo(n) > 0)
       return BigInteger.ZERO;
-    BigInteger end = k.min(n.subtract(k));
-    BigInteger numer = BigInteger.ONE;
-    BigInteger denom = BigInteger.ONE;
-    for (BigInteger i = BigInteger.ONE; i.compareTo(end) < 1; i = i.add(BigInteger.ONE)) {
-      numer = numer.multiply(n.add(BigInteger.ONE).subtract(i));
-      denom = denom.multiply(i);
+    return primeExponentBinomial(n.longValue(), k.longValue(), 1);
+  }
+
+  /**
+   * Computes C(n, k) / d from the Legendre exponents of each prime up to n, taking the primes
+   * from the prime table or, beyond it, from the sieve.
+   * @param n The size of the set
+   * @param k The number of elements to choose, at most n
+   * @param d A positive divisor of C(n, k) with no prime factor above n
+   * @return C(n, k) / d
+   */
+  private BigInteger primeExponentBinomial(long n, long k, long d) {
+    PrimeSieve sieve = n > primes.limit() ? new PrimeSieve(n) : null;
+    long[] factors = new long[(int) (n / 2) + 2];
+    int count = 0;
+    for (int i = 0; ; i++) {
+      long p = sieve != null ? sieve.next() : i < primes.size() ? primes.get(i) : -1;
+      if (p == -1 || p > n)
+        break;
+      int exponent = 0;
+      for (long q = p; q <= n; q *= p) {
+        exponent += n / q - k / q - (n - k) / q;
+        if (q > n / p)
+          break;
+      }
+      for (; d % p == 0; d /= p)
+        exponent--;
+      long power = 1;
+      for (int e = 0; e < exponent; e++)
+        power *= p;
+      if (power > 1)
+        factors[count++] = power;
+    }
+    return ProductTree.product(factors, 0, count);
+  }
+
+  /**
+   * Calculates C(n, k) mod m for arbitrarily large n. The modulus is split into prime powers
+   * p^q, and the residues are joined with the Chinese remainder theorem. For each prime power,
+   * C(n, k) is p^e times a unit, where e is the number of carries when adding k and n - k in
+   * base p. If e >= q the residue is 0; otherwise the unit is N(n) / (N(k) N(n - k)), where
+   * N(x) is x! with every factor of p removed. By Granville's generalization of Lucas' theorem,
+   * N(x) = N(x / p) * (+-1)^(x / p^q) * (x mod p^q)!_p (mod p^q), where y!_p is the product of
+   * the integers up to y that are prime to p, read from a table of p^q entries. For q = 1 this
+   * is Lucas' theorem.
+   * @param n Any non-negative integer
+   * @param k Any non-negative integer
+   * @param m The positive modulus
+   * @return C(n, k) mod m, or null if an argument is out of range or m has a prime power factor
+   * above the limit
+   */
+  public BigInteger binomialMod(BigInteger n, BigInteger k, BigInteger m) {
+    if (n.signum() == -1 || k.signum() == -1 || m.signum() != 1)
+      return null;
+    if (n.compareTo(PROBABLE_PRIME_LIMIT) > 0 || m.compareTo(factorizationLimit()) >= 0)
+      return null;
+    if (k.compareTo(n) > 0)
+      return BigInteger.ZERO;
+    Map<BigInteger, BigInteger> factors = factor(m);
+    if (factors == null)
+      return null;
+    BigInteger result = BigInteger.ZERO, modulus = BigInteger.ONE;
+    for (Map.Entry<BigInteger, BigInteger> entry : factors.entrySet()) {
+      BigInteger primePower = entry.getKey().pow(entry.getValue().intValue());
+      if (primePower.compareTo(BINOMIAL_MOD_LIMIT) > 0)
+        return null;
+      BigInteger r = binomialPrimePower(n, k, entry.getKey().intValue(),
+          entry.getValue().intValue());
+      // Combine x = result (mod modulus) with x = r (mod primePower)
+      BigInteger t = r.subtract(result).multiply(modulus.modInverse(primePower)).mod(primePower);
+      result = result.add(modulus.multiply(t));
+      modulus = modulus.multiply(primePower);
+    }
+    return result.mod(m);
+  }
+
+  /**
+   * Computes C(n, k) mod p^q for k <= n, as described in binomialMod.
+   */
+  private BigInteger binomialPrimePower(BigInteger n, BigInteger k, int p, int q) {
+    int primePower = BigInteger.valueOf(p).pow(q).intValue();
+    BigInteger bigP = BigInteger.valueOf(p);
+    // Carries when adding k and n - k in base p, i.e. the exponent of p in C(n, k)
+    int carries = 0, carry = 0;
+    for (BigInteger a = k, b = n.subtract(k); a.signum() > 0 || b.signum() > 0 || carry > 0; ) {
+      BigInteger[] qa = a.divideAndRemainder(bigP), qb = b.divideAndRemainder(bigP);
+      carry = (qa[1].intValue() + qb[1].intValue() + carry) >= p ? 1 : 0;
+      carries += carry;
+      a = qa[0];
+      b = qb[0];
     }
-    return numer.divide(denom);
+    if (carries >= q)
+      return BigInteger.ZERO;
+    // partial[y] = y!_p mod p^q
+    long[] partial = new long[primePower];
+    partial[0] = 1;
+    for (int y = 1; y < primePower; y++)
+      partial[y] = y % p == 0 ? partial[y - 1] : partial[y - 1] * y % primePower;
+    BigInteger mod = BigInteger.valueOf(primePower);
+    BigInteger unit = unitFactorial(n, p, partial, mod)
+        .multiply(unitFactorial(k, p, partial, mod).multiply(unitFactorial(n.subtract(k), p,
+        partial, mod)).modInverse(mod));
+    return unit.multiply(bigP.pow(carries)).mod(mod);
   }
 
   /**
-   * Calculates 1 / (n + 1) * C(2n, n)
+   * Computes x! with every factor of p removed, modulo p^q.
+   * @param partial The products y!_p mod p^q for y < p^q
+   */
+  private BigInteger unitFactorial(BigInteger x, int p, long[] partial, BigInteger mod) {
+    BigInteger bigP = BigInteger.valueOf(p);
+    // By Gauss's generalization of Wilson's theorem the full product is 1 or -1, so its powers
+    // only depend on the parity of the exponent
+    BigInteger full = BigInteger.valueOf(partial[partial.length - 1]);
+    BigInteger r = BigInteger.ONE;
+    for (; x.signum() > 0; x = x.divide(bigP)) {
+      BigInteger[] qr = x.divideAndRemainder(mod);
+      if (qr[0].testBit(0))
+        r = r.multiply(full);
+      r = r.multiply(BigInteger.valueOf(partial[qr[1].intValue()])).mod(mod);
+    }
+    return r;
+  }
+
+  /**
+   * Calculates 1 / (n + 1) * C(2n, n), removing the factors of n + 1 from the prime exponents of
+   * C(2n, n) instead of dividing.
    * @param n Any non-negative integer
-   * @return The n-th Catalan number
+   * @return The n-th Catalan number, or null if n < 0 or n > FACTORIAL_LIMIT
    */
   public BigInteger catalan(BigInteger n) {
-    if (n.compareTo(SEQUENCE_LIMIT) > 0)
+    if (n.compareTo(FACTORIAL_LIMIT) > 0)
       return null;
     if (n.compareTo(BigInteger.ZERO) < 0)
       return null;
-    return binomialCoefficient(n.multiply(TWO), n).divide(n.add(BigInteger.ONE));
+    return primeExponentBinomial(2 * n.longValue(), n.longValue(), n.longValue() + 1);
   }
 
   /**
@@ -321,11 +557,11 @@ public class CalcFunctions {
    * subsets. This is defined by the recurrence relation:
    * S(n, k) = k * S(n - 1, k) + S(n - 1, k - 1)
    * Formally called Stirling numbers of the second kind.
-   * Because of the computation involved in a two-dimensional recurrence relation, the results are
-   * stored in setPartitionTable, where x, y, maps to the indices x - 1, y - 1 of the table.
+   * Rows of the triangle are generated in parallel from the nearest row kept in setPartitions,
+   * which holds only the few most recently used rows.
    * @param x The size of the set
    * @param y The number of non-empty subsets
-   * @return S(n, k), or null if x > SET_PARTITION_LIMIT
+   * @return S(n, k), or null if x > SET_PARTITION_LIMIT or the budget ran out
    */
   public BigInteger setPartition(BigInteger x, BigInteger y) {
     if (x.compareTo(SET_PARTITION_LIMIT) > 0)
@@ -337,47 +573,22 @@ public class CalcFunctions {
     // Initial condition
     if (x.equals(BigInteger.ZERO) || y.equals(BigInteger.ZERO))
       return BigInteger.ONE;
-    int n = x.intValue();
-    int k = y.intValue();
-    // If some of the table has already been calculated, start at its end
-    int row = setPartitionTable.size();
-    BigInteger rowSum, cur;
-    for (int i = row; i < n; i++) {
-      rowSum = TWO;
-      setPartitionTable.add(new ArrayList<BigInteger>());
-      setPartitionTable.get(i).add(BigInteger.ONE);
-      for (int j = 1; j < i; j++) {
-        cur = setPartitionTable.get(i-1).get(j).multiply(BigInteger.valueOf(j+1))
-          .add(setPartitionTable.get(i-1).get(j-1));
-        setPartitionTable.get(i).add(cur);
-        rowSum = rowSum.add(cur);
-      }
-      setPartitionTable.get(i).add(BigInteger.ONE);
-      setPartitionList.add(rowSum); // Save the sum of each row in a separate list,
-    }                               // which will be used in another function
-    return setPartitionTable.get(n-1).get(k-1);
+    return setPartitions.stirling(x.intValue(), y.intValue());
   }
   
   /**
    * Counts the number of partitions of a labeled set of size x split into any number of non-empty
-   * subsets. B(n) is defined by the sum of the row of S(n, k) from k = 1 to k = n. Formally called
-   * Bell numbers.
+   * subsets. B(n) is defined by the sum of the row of S(n, k) from k = 1 to k = n, but is computed
+   * with the Bell triangle, of which only the last row is kept. Formally called Bell numbers.
    * @param x The size of the set
-   * @return B(n), or null if x > SET_PARTITION_LIMIT
+   * @return B(n), or null if x > SET_PARTITION_LIMIT or the budget ran out
    */
   public BigInteger setPartition(BigInteger x) {
     if (x.compareTo(SET_PARTITION_LIMIT) > 0)
       return null;
     if (x.signum() == -1)
       return null;
-    if (x.equals(BigInteger.ZERO))
-      return BigInteger.ONE;
-    int n = x.intValue();
-    int row = setPartitionList.size();
-    if (n > row) {
-      setPartition(x, x);
-    }
-    return setPartitionList.get(n - 1);
+    return setPartitions.bell(x.intValue());
   }
   
   /**
@@ -385,10 +596,11 @@ public class CalcFunctions {
    * exactly y non-empty subsets. This is defined by the recurrence relation:
    * P(n, k) = P(n - 1, k - 1) + P(n - k, k)
    * Because of the computation involved in a two-dimensional recurrence relation, the results are
-   * stored in intPartitionTable, where x, y, maps to the indices x - 1, y - 1 of the table
+   * stored in intPartitionTable, where x, y, maps to the indices x - 1, y - 1 of the table. The
+   * table is extended in a copy, which replaces it once the new rows are complete.
    * @param x The size of the set
    * @param y The number of non-empty subsets
-   * @return P(n, k), or null if x > SET_PARTITION_LIMIT
+   * @return P(n, k), or null if x > INT_PARTITION_LIMIT or the budget ran out
    */
   public BigInteger intPartition(BigInteger x, BigInteger y) {
     if (x.compareTo(INT_PARTITION_LIMIT) > 0)
@@ -401,74 +613,248 @@ public class CalcFunctions {
       return BigInteger.ONE;
     int n = x.intValue();
     int k = y.intValue();
-    int row = intPartitionTable.size();
-    BigInteger rowSum, cur;
-    for (int i = row; i < n; i++) {
-      rowSum = TWO;
-      intPartitionTable.add(new ArrayList<BigInteger>());
-      intPartitionTable.get(i).add(BigInteger.ONE);
+    BigInteger[][] table = intPartitionTable;
+    if (n > table.length) {
+      synchronized (intPartitionTableLock) {
+        table = extendIntPartitionTable(intPartitionTable, n);
+        intPartitionTable = table;
+      }
+      if (n > table.length)
+        return null;
+    }
+    return table[n-1][k-1];
+  }
+
+  /**
+   * Copies the table of P(n, k) with rows added up to row n - 1, or fewer if the budget ran out.
+   */
+  private BigInteger[][] extendIntPartitionTable(BigInteger[][] table, int n) {
+    if (n <= table.length)
+      return table;
+    BigInteger[][] next = Arrays.copyOf(table, n);
+    BigInteger cur;
+    for (int i = table.length; i < n; i++) {
+      if (Budget.current().isExhausted())
+        return Arrays.copyOf(next, i);
+      next[i] = new BigInteger[i + 1];
+      next[i][0] = BigInteger.ONE;
       for (int j = 1; j < i; j++) {
         if (2*j >= i) {
-          cur = intPartitionTable.get(i-1).get(j-1);
+          cur = next[i-1][j-1];
         } else {
-          cur = intPartitionTable.get(i-1).get(j-1).add(intPartitionTable.get(i-j-1).get(j));
+          cur = next[i-1][j-1].add(next[i-j-1][j]);
         }
-        intPartitionTable.get(i).add(cur);
-        rowSum = rowSum.add(cur);
+        next[i][j] = cur;
       }
-      intPartitionTable.get(i).add(BigInteger.ONE);
-      intPartitionList.add(rowSum);
+      next[i][i] = BigInteger.ONE;
     }
-    return intPartitionTable.get(n-1).get(k-1);
+    return next;
   }
   
   /**
    * Counts the number of partitions of an unlabeled set of size x split into any number of
-   * non-empty subsets. P(n) by the sum of the row of P(n, k) from k = 1 to k = n.
+   * non-empty subsets. P(n) up to PARTITION_TABLE_LIMIT is read from intPartitionNumbers, which is
+   * extended in a copy with Euler's pentagonal recurrence in O(n^1.5) additions, and larger P(n) are
+   * computed on their own with the Hardy-Ramanujan-Rademacher series.
    * @param x The size of the set
-   * @return P(n), or null if x > SET_PARTITION_LIMIT
+   * @return P(n), or null if x < 0, x > PARTITION_LIMIT or the budget ran out
    */
   public BigInteger intPartition(BigInteger x) {
-    if (x.compareTo(INT_PARTITION_LIMIT) > 0)
+    if (x.compareTo(PARTITION_LIMIT) > 0)
       return null;
     if (x.signum() == -1)
       return null;
-    if (x.equals(BigInteger.ZERO))
-      return BigInteger.ONE;
     int n = x.intValue();
-    int row = intPartitionList.size();
-    if (n > row) {
-      intPartition(x, x);
+    if (n > PARTITION_TABLE_LIMIT)
+      return PartitionCounter.rademacher(n);
+    BigInteger[] table = intPartitionNumbers;
+    if (n >= table.length) {
+      synchronized (intPartitionNumbersLock) {
+        table = intPartitionNumbers;
+        if (n >= table.length) {
+          table = PartitionCounter.extend(table, n);
+          intPartitionNumbers = table;
+        }
+      }
     }
-    return intPartitionList.get(n - 1);
+    return n < table.length ? table[n] : null;
+  }
+
+  /**
+   * Computes P(n) with the pentagonal recurrence run modulo several primes below 2^62 in parallel,
+   * with the residues held in long arrays and joined with the Chinese remainder theorem. This
+   * needs neither the BigInteger table nor floating point, and is an independent check on
+   * intPartition.
+   * @param x The size of the set
+   * @return P(n), or null if x < 0 or x > MODULAR_PARTITION_LIMIT
+   */
+  public BigInteger intPartitionMultiModular(BigInteger x) {
+    if (x.compareTo(MODULAR_PARTITION_LIMIT) > 0)
+      return null;
+    if (x.signum() == -1)
+      return null;
+    return PartitionCounter.multiModular(x.intValue());
   }
   
   /**
-   * Calculates the x-th Fibonacci number, or any similar sequence, given two initial values, using
-   * the formula: F(x) = F(x - 1) + F(x - 2). Fibonacci numbers use initial values of 0 and 1,
-   * Lucas numbers use initial values of 2 and 1.
+   * Calculates the x-th Fibonacci number, or any similar sequence, given two initial values. Any
+   * sequence with G(x) = G(x - 1) + G(x - 2) satisfies G(x) = G(0) F(x - 1) + G(1) F(x), so only
+   * a pair of consecutive Fibonacci numbers is needed, and those come from fast doubling in
+   * O(log x) steps. Fibonacci numbers use initial values of 0 and 1, Lucas numbers use initial
+   * values of 2 and 1.
    * @param x Any integer
    * @param first The zeroth number in the sequence
    * @param second The first number in the sequence
-   * @return The x-th number in the sequence, or null if x < 0 or x > SEQUENCE_LIMIT
+   * @return The x-th number in the sequence, or null if x < 0 or x > FIBONACCI_LIMIT
    */
   public BigInteger fibonacci(BigInteger x, BigInteger first, BigInteger second) {
-    if (x.compareTo(SEQUENCE_LIMIT) > 0)
+    if (x.compareTo(FIBONACCI_LIMIT) > 0)
       return null;
     if (x.signum() == -1)
       return null;
     if (x.equals(BigInteger.ZERO))
       return first;
-    if (x.equals(BigInteger.ONE))
-      return second;
-    int n = x.intValue();
-    BigInteger r = first, r1 = second, r2 = first;
-    for (int i = 2; i <= n; i++) {
-        r = r1.add(r2);
-        r2 = r1;
-        r1 = r;
+    BigInteger[] f = fibonacciPair(x.subtract(BigInteger.ONE), null);
+    return first.multiply(f[0]).add(second.multiply(f[1]));
+  }
+
+  /**
+   * Calculates the x-th Fibonacci number modulo m by fast doubling with every step reduced mod m,
+   * so the numbers never grow beyond m^2. Fibonacci numbers mod m repeat with the Pisano period
+   * of m, so when m factors cheaply, x is first reduced modulo a multiple of that period. The
+   * doubling takes only as many steps as x has bits, so m is never handed to rho or the sieves
+   * for this. For odd m the doubling runs in a Montgomery context.
+   * @param x Any non-negative integer
+   * @param m The positive modulus
+   * @return F(x) mod m, or null if x is negative, m is not positive or either exceeds the limit
+   */
+  public BigInteger fibonacciMod(BigInteger x, BigInteger m) {
+    if (x.signum() == -1 || m.signum() != 1)
+      return null;
+    if (x.compareTo(PROBABLE_PRIME_LIMIT) > 0 || m.compareTo(PROBABLE_PRIME_LIMIT) > 0)
+      return null;
+    BigInteger period = pisanoMultiple(m);
+    if (period != null)
+      x = x.mod(period);
+    if (m.testBit(0) && !m.equals(BigInteger.ONE))
+      return fibonacciMontgomery(x, new MontgomeryContext(m));
+    return fibonacciPair(x, m)[0];
+  }
+
+  /**
+   * Computes F(n) modulo an odd number by the same doubling steps as fibonacciPair, carried out
+   * in Montgomery form so that no step divides or allocates.
+   * @param n Any non-negative integer
+   * @param mont The Montgomery context of the modulus
+   * @return F(n) mod the modulus
+   */
+  private BigInteger fibonacciMontgomery(BigInteger n, MontgomeryContext mont) {
+    // a = F(k), b = F(k + 1), c = F(2k), d = F(2k + 1)
+    long[] a = mont.zero(), b = mont.one(), c = mont.zero(), d = mont.zero(), t;
+    for (int i = n.bitLength() - 1; i >= 0; i--) {
+      mont.add(b, b, c);
+      mont.subtract(c, a, c);
+      mont.multiply(a, c, c);
+      mont.square(a, a);
+      mont.square(b, d);
+      mont.add(a, d, d);
+      if (n.testBit(i)) {
+        mont.add(c, d, c);
+        t = a;
+        a = d;
+        d = t;
+        t = b;
+        b = c;
+        c = t;
+      } else {
+        t = a;
+        a = c;
+        c = t;
+        t = b;
+        b = d;
+        d = t;
+      }
     }
-    return r;
+    return mont.toBigInteger(a);
+  }
+
+  /**
+   * Computes F(n) and F(n + 1) from the top bit of n down, using F(2k) = F(k) (2 F(k + 1) - F(k))
+   * and F(2k + 1) = F(k)^2 + F(k + 1)^2.
+   * @param n Any non-negative integer
+   * @param m The modulus to reduce by at every step, or null for exact values
+   * @return {F(n), F(n + 1)}, reduced mod m if given
+   */
+  private BigInteger[] fibonacciPair(BigInteger n, BigInteger m) {
+    BigInteger a = BigInteger.ZERO, b = BigInteger.ONE;
+    for (int i = n.bitLength() - 1; i >= 0; i--) {
+      BigInteger c = a.multiply(b.shiftLeft(1).subtract(a));
+      BigInteger d = a.multiply(a).add(b.multiply(b));
+      if (m != null) {
+        c = c.mod(m);
+        d = d.mod(m);
+      }
+      if (n.testBit(i)) {
+        a = d;
+        b = m == null ? c.add(d) : c.add(d).mod(m);
+      } else {
+        a = c;
+        b = d;
+      }
+    }
+    return new BigInteger[] {m == null ? a : a.mod(m), m == null ? b : b.mod(m)};
+  }
+
+  /**
+   * Returns a multiple of the Pisano period of m, the lcm over the prime powers p^k dividing m of
+   * p^(k - 1) times a known multiple of the period of p: 3 for 2, 20 for 5, p - 1 when p = +-1
+   * (mod 5) and 2(p + 1) when p = +-2 (mod 5).
+   * @param m A positive integer
+   * @return A multiple of the period, or null if m does not factor cheaply
+   */
+  private BigInteger pisanoMultiple(BigInteger m) {
+    Map<BigInteger, BigInteger> factors = cheapFactor(m);
+    if (factors == null)
+      return null;
+    BigInteger period = BigInteger.ONE;
+    for (Map.Entry<BigInteger, BigInteger> entry : factors.entrySet()) {
+      BigInteger p = entry.getKey();
+      BigInteger base;
+      if (p.equals(TWO))
+        base = THREE;
+      else if (p.equals(FIVE))
+        base = BigInteger.valueOf(20);
+      else if (p.mod(FIVE).equals(BigInteger.ONE) || p.mod(FIVE).equals(BigInteger.valueOf(4)))
+        base = p.subtract(BigInteger.ONE);
+      else
+        base = p.add(BigInteger.ONE).shiftLeft(1);
+      BigInteger term = base.multiply(p.pow(entry.getValue().intValue() - 1));
+      period = period.divide(period.gcd(term)).multiply(term);
+    }
+    return period;
+  }
+
+  /**
+   * Factors m only as far as it is cheap: a factorization already in the cache, LongArithmetic
+   * below 2^63, or trial division leaving a cofactor that is below 2^63 or prime.
+   * @param m A positive integer
+   * @return The prime factorization of m, or null if it would take rho or the sieves
+   */
+  private TreeMap<BigInteger, BigInteger> cheapFactor(BigInteger m) {
+    if (m.bitLength() < 63)
+      return factor(m);
+    TreeMap<BigInteger, BigInteger> factors = factorizations.get(m);
+    if (factors != null)
+      return factors;
+    factors = new TreeMap<BigInteger, BigInteger>();
+    BigInteger modNum = trialDivide(m, factors, false);
+    if (modNum.bitLength() < 63)
+      addLongFactors(modNum.longValue(), BigInteger.ONE, factors);
+    else if (isProbablePrime(modNum))
+      addFactor(factors, modNum, BigInteger.ONE);
+    else
+      return null;
+    return factors;
   }
 
   /**
@@ -517,8 +903,9 @@ public class CalcFunctions {
     if (n.equals(BigInteger.ZERO) || n.equals(BigInteger.ONE)) return BigInteger.ZERO;
     if (x.signum() == -1 || x.compareTo(POWER_LIMIT) > 0) return null;
     n = n.abs();
-    if (n.compareTo(FACTORIZATION_LIMIT) > 0) return null;
+    if (n.compareTo(factorizationLimit()) > 0) return null;
     Map<BigInteger, BigInteger> factors = factor(n);
+    if (factors == null) return null;
     BigInteger r = BigInteger.ONE;
     Iterator<BigInteger> it = factors.keySet().iterator();
     BigInteger p, pSum, numFactors;
@@ -542,9 +929,11 @@ public class CalcFunctions {
    */
   public BigInteger littleOmega(BigInteger m) {
     m = m.abs();
-    if (m.compareTo(FACTORIZATION_LIMIT) > 0) return null;
+    if (m.compareTo(factorizationLimit()) > 0) return null;
     if (m.equals(BigInteger.ZERO) || m.equals(BigInteger.ONE)) return BigInteger.ZERO;
-    return BigInteger.valueOf(factor(m).size());
+    Map<BigInteger, BigInteger> factors = factor(m);
+    if (factors == null) return null;
+    return BigInteger.valueOf(factors.size());
   }
   
   /**
@@ -554,9 +943,10 @@ public class CalcFunctions {
    */
   public BigInteger bigOmega(BigInteger m) {
     m = m.abs();
-    if (m.compareTo(FACTORIZATION_LIMIT) > 0) return null;
+    if (m.compareTo(factorizationLimit()) > 0) return null;
     if (m.equals(BigInteger.ZERO) || m.equals(BigInteger.ONE)) return BigInteger.ZERO;
     Map<BigInteger, BigInteger> factors = factor(m);
+    if (factors == null) return null;
     BigInteger r = BigInteger.ZERO;
     for (BigInteger i : factors.keySet()) r = r.add(factors.get(i));
     return r;
@@ -568,82 +958,138 @@ public class CalcFunctions {
    * function.
    * @param a The upper limit
    * @param k The size of the tuple, minus 1
-   * @return Jordan's totient function for a and k
+   * @return Jordan's totient function for a and k, or null if a exceeds the factorization limit
+   * or could not be factored, or the budget ran out
    */
   public BigInteger jordanTotient(BigInteger a, BigInteger k) {
     if (a.signum() != 1 || k.signum() != 1)
       return null;
-    if (a.compareTo(FACTORIZATION_LIMIT) >= 0 || k.compareTo(POWER_LIMIT) > 0) 
+    if (a.compareTo(factorizationLimit()) >= 0 || k.compareTo(POWER_LIMIT) > 0)
       return null;
     if (a.equals(BigInteger.ZERO))
       return BigInteger.ONE;
-    if (primes.contains(a) || isPrime(a))
+    Boolean prime = primes.contains(a) ? Boolean.TRUE : isPrime(a);
+    if (prime == null)
+      return null;
+    if (prime)
       return newPow(a, k).subtract(BigInteger.ONE);
-    Set<BigInteger> factors = factor(a).keySet();
-    BigInteger numer = newPow(a, k);
-    BigInteger denom = BigInteger.ONE;
+    Map<BigInteger, BigInteger> factorization = factor(a);
+    if (factorization == null)
+      return null;
+    Set<BigInteger> factors = factorization.keySet();
+    List<BigInteger> numer = new ArrayList<BigInteger>();
+    List<BigInteger> denom = new ArrayList<BigInteger>();
+    numer.add(newPow(a, k));
     for (BigInteger f : factors) {
-      numer = numer.multiply(newPow(f, k).subtract(BigInteger.ONE));
-      denom = denom.multiply(newPow(f, k));
+      BigInteger power = newPow(f, k);
+      numer.add(power.subtract(BigInteger.ONE));
+      denom.add(power);
     }
-    return numer.divide(denom);
+    return ProductTree.product(numer).divide(ProductTree.product(denom));
   }
   
   /**
    * Returns 0 if a number n is not squarefree, i.e. is divisible by the square of a prime,
-   * otherwise returns 1 if the number of prime factors of n is even and -1 if odd. Uses trial
-   * division, but immediately returns 0 once it re-encounters a prime.
+   * otherwise returns 1 if the number of prime factors of n is even and -1 if odd. A factorization
+   * of n already in the cache is used if there is one, and numbers below 2^63 are factored with
+   * LongArithmetic. Larger numbers go through the same pipeline
+   * as factor, trial division and then rho, elliptic curves and the quadratic sieve for the
+   * cofactor, but the search stops with 0 as soon as any prime is seen twice or a piece turns out
+   * to be a perfect power or to share a factor with its cofactor.
    * @param n The number to compute the Mobius function of
-   * @return The mobius function of n
+   * @return The mobius function of n, or null if n is 0, exceeds the factorization limit or could
+   * not be factored, or the budget ran out
    */
   public BigInteger mobius(BigInteger n) {
-    Set<BigInteger> factors = new HashSet<BigInteger>();
-    BigInteger modNum = n;
-    BigInteger factor = TWO;
-    Iterator<BigInteger> knownPrimes = primes.iterator();
-    while (!modNum.equals(BigInteger.ONE)) {
-      if (modNum.mod(factor).equals(BigInteger.ZERO)) {
-        if (!factors.add(factor)) return BigInteger.ZERO;
-        modNum = modNum.divide(factor);
-      } else if (factor.pow(2).compareTo(modNum) == 1) {
-        factors.add(modNum);
-        modNum = BigInteger.ONE;
-      } else {
-        if (knownPrimes.hasNext()) {
-          factor = knownPrimes.next();
-        } else {
-          if (factor.equals(TWO))
-            factor = THREE;
-          else
-            factor = factor.add(TWO);
-        }
+    n = n.abs();
+    if (n.signum() == 0)
+      return null;
+    if (n.compareTo(factorizationLimit()) > 0)
+      return null;
+    if (n.bitLength() <= FACTOR_CACHE_MIN_BITS)
+      return BigInteger.valueOf(LongArithmetic.mobius(n.longValue()));
+    // Below 2^63 a full factorization costs little more than the early exit, and can be cached
+    Map<BigInteger, BigInteger> cached = n.bitLength() < 63 ? factor(n) : factorizations.get(n);
+    if (cached != null) {
+      for (BigInteger power : cached.values()) {
+        if (!power.equals(BigInteger.ONE))
+          return BigInteger.ZERO;
       }
+      return BigInteger.valueOf(((cached.size() % 2) * -2) + 1);
     }
+    TreeMap<BigInteger, BigInteger> factors = new TreeMap<BigInteger, BigInteger>();
+    BigInteger modNum = trialDivide(n, factors, true);
+    if (modNum == null)
+      return BigInteger.ZERO;
+    if (!modNum.equals(BigInteger.ONE)) {
+      Boolean squarefree = splitSquarefree(modNum, factors);
+      if (squarefree == null)
+        return null;
+      if (!squarefree)
+        return BigInteger.ZERO;
+    }
+    if (n.bitLength() > FACTOR_CACHE_MIN_BITS)
+      factorizations.put(n, factors);
     return BigInteger.valueOf(((factors.size() % 2) * -2) + 1);
   }
+
+  /**
+   * Splits m, which has no factors below the trial division limit, into distinct primes, giving
+   * up as soon as it is clear that m is not squarefree.
+   * @param m The number to split
+   * @param factors The map that the primes are added to, each with power 1
+   * @return true if m is squarefree, false if it is divisible by a square, or null if some piece
+   * could not be split or the budget ran out
+   */
+  private Boolean splitSquarefree(BigInteger m, TreeMap<BigInteger, BigInteger> factors) {
+    if (Budget.current().isExhausted())
+      return null;
+    if (isProbablePrime(m))
+      return factors.put(m, BigInteger.ONE) == null;
+    int maxExponent = m.bitLength() / (31 - Integer.numberOfLeadingZeros(TRIAL_DIVISION_LIMIT));
+    for (int k = 2; k <= maxExponent; k++) {
+      if (iroot(m, k).pow(k).equals(m))
+        return false;
+    }
+    BigInteger d = findFactor(m);
+    if (d == null)
+      return null;
+    BigInteger e = m.divide(d);
+    if (!d.gcd(e).equals(BigInteger.ONE))
+      return false;
+    Boolean first = splitSquarefree(d, factors);
+    if (first == null || !first)
+      return first;
+    return splitSquarefree(e, factors);
+  }
   
   /**
    * Computes the smallest integer m such that a^m = 1 (mod n) for all integers a coprime to n.
    * The Carmichael function for n is equal to Euler's Totient function if n is prime, and in
    * general always divides Euler's Totient function for n.
    * @param n The modulo
-   * @return The Carmichael function of n, or null if the modulo is not positive or exceeds the
-   * factorization limit.
+   * @return The Carmichael function of n, or null if the modulo is not positive, exceeds the
+   * factorization limit or could not be factored, or the budget ran out
    */
   public BigInteger carmichael(BigInteger n) {
     if (n.signum() != 1)
       return null;
-    if (n.compareTo(FACTORIZATION_LIMIT) > 0)
+    if (n.compareTo(factorizationLimit()) > 0)
       return null;
     BigInteger FOUR = BigInteger.valueOf(4);
     if (n.equals(BigInteger.ONE))
       return BigInteger.ONE;
     if (n.equals(FOUR))
       return TWO;
-    if (primes.contains(n) || isPrime(n))
+    Boolean prime = primes.contains(n) ? Boolean.TRUE : isPrime(n);
+    if (prime == null)
+      return null;
+    if (prime)
       return n.subtract(BigInteger.ONE);
     if (n.getLowestSetBit() + 1 == n.bitLength()) return n.divide(FOUR);
     Map<BigInteger, BigInteger> factors = factor(n);
+    if (factors == null)
+      return null;
     Set<BigInteger> carmichaelFactors = new HashSet<BigInteger>();
     for (BigInteger i : factors.keySet()) {
       BigInteger pPow = factors.get(i);
@@ -662,11 +1108,12 @@ public class CalcFunctions {
    * Determines if a number is prime using a series of primality tests. Returns 2 as prime, returns
    * 0, 1, and multiples of 2 as non-prime, tests Mersenne numbers using the Lucas-Lehmer test,
    * checks to see if the set of pre-computed primes contains x, and finally tests x using the
-   * Miller-Rabin test.
+   * Miller-Rabin test. Above the 24 digit range of the witnesses map, the Baillie-PSW test is
+   * used instead, so a result of true is only a probable prime there (see isProvenRange).
    * @param x The number to check the primality of
    * @return true if the number if prime, false if the number is non-prime, or null if the number
-   * exceeds the Mersenne limit if it is a Mersenne number or exceeds the 24 digit limit for all
-   * other numbers
+   * exceeds the Mersenne limit if it is a Mersenne number or exceeds the probable prime limit for
+   * all other numbers, or if the budget ran out during the Lucas-Lehmer test
    */
   public Boolean isPrime(BigInteger x) {
     x = x.abs();
@@ -676,88 +1123,293 @@ public class CalcFunctions {
         || x.equals(BigInteger.ONE)
         || x.mod(TWO).equals(BigInteger.ZERO))
       return false;
+    if (x.bitLength() < 63)
+      return LongArithmetic.isPrime(x.longValue());
     if (x.bitLength() == x.bitCount()) {
-      if (x.compareTo(MERSENNE_LIMIT) > 0)
+      if (x.compareTo(MERSENNE_LIMIT) > 0 && !timeBounded())
         return null;
       else
         return (lucasLehmer(x));
     }
-    if (x.compareTo(witnesses.lastKey()) >= 0)
-      return null;
+    if (x.compareTo(witnesses.lastKey()) >= 0) {
+      if (x.compareTo(PROBABLE_PRIME_LIMIT) > 0)
+        return null;
+      return bailliePSW(x);
+    }
     if (primes.contains(x))
       return true;
     return (millerRabin(x));
   }
 
+  /**
+   * Determines whether the result of isPrime for x is a proof, i.e. whether x is small enough
+   * for the deterministic Miller-Rabin witnesses or is tested with the Lucas-Lehmer test.
+   * @param x Any integer
+   * @return true if isPrime(x) is deterministic, false if it only gives a probable prime
+   */
+  private boolean isProvenRange(BigInteger x) {
+    x = x.abs();
+    return x.compareTo(witnesses.lastKey()) < 0 || x.bitLength() == x.bitCount();
+  }
+
+  /**
+   * Produces a certificate proving that x is prime, using the Pocklington and elliptic curve
+   * primality provers. The proof runs on the prover's thread pool and is abandoned if it takes
+   * longer than PROOF_TIME_LIMIT.
+   * @param x The number to prove prime
+   * @return A verified certificate, or null if x is not prime, exceeds the certificate limit, or
+   * could not be proven prime in time
+   */
+  public PrimalityCertificate primalityCertificate(BigInteger x) {
+    x = x.abs();
+    if (x.compareTo(CERTIFICATE_LIMIT) > 0 || !Boolean.TRUE.equals(isPrime(x)))
+      return null;
+    return certify(x);
+  }
+
+  /**
+   * Waits for the prover to certify a number that already passed isPrime.
+   * @param x A prime or probable prime
+   * @return A verified certificate, or null if none was found within PROOF_TIME_LIMIT or the
+   * search failed
+   */
+  private PrimalityCertificate certify(BigInteger x) {
+    CompletableFuture<PrimalityCertificate> proof = prover.proveAsync(x);
+    try {
+      return proof.get(PROOF_TIME_LIMIT, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      proof.cancel(true);
+      return null;
+    } catch (InterruptedException e) {
+      proof.cancel(true);
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException e) {
+      // A failed search proves nothing either way, so x stays a probable prime
+      return null;
+    }
+  }
+
   /**
    * Returns an ordered map of BigIntegers, where the keys are the prime factors and the entries
-   * are the prime powers corresponding to the factorization of n. Uses trial division, starting
-   * with known primes and extending past them if necessary.
+   * are the prime powers corresponding to the factorization of n. Small factors are removed by
+   * trial division over a mod 30 wheel, then the remaining cofactor is split recursively with
+   * Pollard's rho method, falling back to the elliptic curve method and the quadratic sieve when
+   * rho does not find a factor quickly, until every piece passes a primality test. Numbers and
+   * pieces below 2^63 are factored with LongArithmetic instead. Numbers above
+   * FACTOR_CACHE_MIN_BITS are looked up in and added to the factorization cache.
    * @param n The number to factor
-   * @return The prime factorization of n as a map of primes to powers
+   * @return The prime factorization of n as a map of primes to powers, or null if some composite
+   * cofactor could not be split
    */
   private TreeMap<BigInteger, BigInteger> factor(BigInteger n) {
-    TreeMap<BigInteger, BigInteger> factors = new TreeMap<BigInteger, BigInteger>();
+    boolean cached = n.bitLength() > FACTOR_CACHE_MIN_BITS;
+    TreeMap<BigInteger, BigInteger> factors = cached ? factorizations.get(n) : null;
+    if (factors != null)
+      return factors;
+    factors = new TreeMap<BigInteger, BigInteger>();
+    if (n.bitLength() < 63) {
+      addLongFactors(n.longValue(), BigInteger.ONE, factors);
+    } else {
+      BigInteger modNum = trialDivide(n, factors, false);
+      if (!modNum.equals(BigInteger.ONE) && !splitFactor(modNum, BigInteger.ONE, factors))
+        return null;
+    }
+    if (cached)
+      factorizations.put(n, factors);
+    return factors;
+  }
+
+  /**
+   * The number of factorizations found in the cache, by every function that factors its
+   * argument: sumDivisors, littleOmega, bigOmega, jordanTotient, mobius, carmichael,
+   * stringifyFactors, stringifyDivisors and the modular functions that factor their modulus.
+   */
+  public long factorizationCacheHits() {
+    return factorizations.hits();
+  }
+
+  /**
+   * The number of factorizations looked for in the cache but not found there.
+   */
+  public long factorizationCacheMisses() {
+    return factorizations.misses();
+  }
+
+  /**
+   * Changes how many factorizations are kept. The least recently used ones are evicted once
+   * either bound is exceeded.
+   * @param maxEntries The largest number of factorizations, or 0 to disable the cache
+   * @param maxBytes The largest estimated size of all the kept factorizations, in bytes
+   */
+  public void resizeFactorizationCache(int maxEntries, long maxBytes) {
+    factorizations.resize(maxEntries, maxBytes);
+  }
+
+  /**
+   * Removes every prime factor below TRIAL_DIVISION_LIMIT from n, dividing only by the primes
+   * from the prime table.
+   * @param n The number to divide
+   * @param factors The map that found factors are added to
+   * @param squarefree Whether to give up as soon as some prime divides n twice
+   * @return The cofactor left over after trial division, either 1 or a number whose prime
+   * factors all exceed the trial division limit, or null if squarefree is set and n is not
+   */
+  private BigInteger trialDivide(BigInteger n, TreeMap<BigInteger, BigInteger> factors,
+      boolean squarefree) {
     BigInteger modNum = n;
-    BigInteger factor = TWO;
-    Iterator<BigInteger> knownPrimes = primes.iterator();
-    while (!modNum.equals(BigInteger.ONE)) {
-      if (modNum.mod(factor).equals(BigInteger.ZERO)) {
-        if (!factors.containsKey(factor)) {
-          factors.put(factor, BigInteger.ONE);
-        } else {
-          factors.put(factor, factors.get(factor).add(BigInteger.ONE));
-        }
-        modNum = modNum.divide(factor);
-      } else if (factor.pow(2).compareTo(modNum) == 1) {
-        factors.put(modNum, BigInteger.ONE);
-        modNum = BigInteger.ONE;
+    int index = 0;
+    while (primes.get(index) < TRIAL_DIVISION_LIMIT && !modNum.equals(BigInteger.ONE)) {
+      BigInteger factor = BigInteger.valueOf(primes.get(index));
+      if (factor.multiply(factor).compareTo(modNum) > 0) {
+        // No factor below the square root, so what remains is prime
+        if (squarefree && factors.containsKey(modNum))
+          return null;
+        addFactor(factors, modNum, BigInteger.ONE);
+        return BigInteger.ONE;
+      }
+      BigInteger[] qr = modNum.divideAndRemainder(factor);
+      if (qr[1].signum() == 0) {
+        if (squarefree && factors.containsKey(factor))
+          return null;
+        addFactor(factors, factor, BigInteger.ONE);
+        modNum = qr[0];
       } else {
-        if (knownPrimes.hasNext()) {
-          factor = knownPrimes.next();
-        } else {
-          if (factor.equals(TWO)) factor = THREE;
-          else factor = factor.add(TWO);
-        }
+        index++;
       }
     }
-    return factors;
+    return modNum;
+  }
+
+  /**
+   * Recursively splits m, which has no factors below the trial division limit, into primes. Each
+   * piece is first tested for primality, then for being a perfect power, and only then handed to
+   * Pollard's rho method. If that fails, small numbers go to the elliptic curve method, while
+   * large ones get a short run of it to catch unbalanced factors before the quadratic sieve.
+   * @param m The number to split
+   * @param power The power that m appears with in the original number
+   * @param factors The map that found factors are added to
+   * @return true if m was completely factored, false if some composite piece could not be split
+   * or the budget ran out
+   */
+  private boolean splitFactor(BigInteger m, BigInteger power, TreeMap<BigInteger, BigInteger> factors) {
+    if (Budget.current().isExhausted())
+      return false;
+    if (m.bitLength() < 63) {
+      addLongFactors(m.longValue(), power, factors);
+      return true;
+    }
+    if (isProbablePrime(m)) {
+      addFactor(factors, m, power);
+      return true;
+    }
+    // Every prime factor of m is at least TRIAL_DIVISION_LIMIT, which bounds the possible exponent
+    int maxExponent = m.bitLength() / (31 - Integer.numberOfLeadingZeros(TRIAL_DIVISION_LIMIT));
+    for (int k = 2; k <= maxExponent; k++) {
+      BigInteger root = iroot(m, k);
+      if (root.pow(k).equals(m))
+        return splitFactor(root, power.multiply(BigInteger.valueOf(k)), factors);
+    }
+    BigInteger d = findFactor(m);
+    if (d == null)
+      return false;
+    return splitFactor(d, power, factors) && splitFactor(m.divide(d), power, factors);
+  }
+
+  /**
+   * Finds a non-trivial factor of a composite m that is not a perfect power with Pollard's rho
+   * method, then the elliptic curve method, and for large m the quadratic sieve.
+   * @param m The number to split
+   * @return A factor d of m with 1 < d < m, or null if none was found or the budget ran out
+   */
+  private BigInteger findFactor(BigInteger m) {
+    Budget budget = Budget.current();
+    BigInteger d = PollardRho.findFactor(m, RHO_ITERATION_LIMIT);
+    // Each method sets up tables before its first check, so the budget is checked on entry
+    if (d != null || budget.isExhausted())
+      return d;
+    int digits = m.toString().length();
+    if (digits < QUADRATIC_SIEVE_DIGITS)
+      return EllipticCurveMethod.findFactor(m, (digits + 1) / 2);
+    d = EllipticCurveMethod.findFactor(m, digits / 4);
+    if (d == null && !budget.isExhausted())
+      d = QuadraticSieve.findFactor(m);
+    return d;
+  }
+
+  /**
+   * Factors n with LongArithmetic and adds its prime factors to a factorization.
+   * @param n A positive long
+   * @param power The power that n itself appears with
+   * @param factors The factorization to add to
+   */
+  private void addLongFactors(long n, BigInteger power, TreeMap<BigInteger, BigInteger> factors) {
+    for (long p : LongArithmetic.factor(n))
+      addFactor(factors, BigInteger.valueOf(p), power);
+  }
+
+  /**
+   * Adds p^e to a factorization, merging it with any power of p already present.
+   * @param factors The factorization to add to
+   * @param p A prime factor
+   * @param e The power of p
+   */
+  private void addFactor(TreeMap<BigInteger, BigInteger> factors, BigInteger p, BigInteger e) {
+    BigInteger old = factors.get(p);
+    factors.put(p, old == null ? e : old.add(e));
+  }
+
+  /**
+   * Computes the largest integer r such that r^k <= n, using Newton's method.
+   * @param n A positive integer
+   * @param k The degree of the root, at least 2
+   * @return The integer k-th root of n
+   */
+  private BigInteger iroot(BigInteger n, int k) {
+    BigInteger kBig = BigInteger.valueOf(k);
+    BigInteger x = BigInteger.ONE.shiftLeft((n.bitLength() + k - 1) / k); // Always >= the root
+    while (true) {
+      BigInteger y = x.multiply(kBig.subtract(BigInteger.ONE)).add(n.divide(x.pow(k - 1)))
+          .divide(kBig);
+      if (y.compareTo(x) >= 0)
+        return x;
+      x = y;
+    }
+  }
+
+  /**
+   * Primality test used on the cofactors produced while factoring. Below the range of the
+   * witnesses map this is the deterministic Miller-Rabin test, above it the Baillie-PSW test.
+   * @param m An odd number greater than the trial division limit
+   * @return true if m is prime (or a probable prime above the witness range)
+   */
+  private boolean isProbablePrime(BigInteger m) {
+    if (m.compareTo(witnesses.lastKey()) < 0)
+      return millerRabin(m);
+    return bailliePSW(m);
   }
 
   /**
    * Determines primality of a integer using the Miller-Rabin test. This test is usually
    * probabilistic, but this algorithm uses a deterministic variant up to 24 digits via the
-   * witnesses map.
+   * witnesses map. Numbers below 2^63 are tested with LongArithmetic.
    * @param n The number to test the primality of
    * @return true if the number is prime and has fewer than 24 digits, false otherwise
    */
   private boolean millerRabin(BigInteger n) {
-    // nM = n - 1, nM = 2^r * d,
-    // a = witness to test, x = result of the test
+    if (n.bitLength() < 63)
+      return LongArithmetic.isPrime(n.longValue());
     // witnessCeiling = smallest value greater than n that has a known witness list
-    BigInteger nM, d, witnessCeiling;
-    nM = n.subtract(BigInteger.ONE);
-    int r = n.getLowestSetBit();
-    d = nM.shiftRight(r);
-    witnessCeiling = witnesses.higherKey(n);
-    boolean con;
+    BigInteger witnessCeiling = witnesses.higherKey(n);
     if (witnessCeiling != null) {
       List<BigInteger> nWitnesses = witnesses.get(witnessCeiling);
-      BigInteger x;
+      // nM = n - 1 = 2^r * d, shared by every witness along with the Montgomery constants of n
+      BigInteger nM = n.subtract(BigInteger.ONE);
+      int r = nM.getLowestSetBit();
+      BigInteger d = nM.shiftRight(r);
+      MontgomeryContext mont = new MontgomeryContext(n);
       for (BigInteger a : nWitnesses) {
-        con = false;
-        x = a.modPow(d, n);
-        if (x.equals(BigInteger.ONE) || x.equals(n.subtract(BigInteger.ONE))) continue;
-        for (int j = 0; j < r - 1; j++) {
-          x = x.modPow(TWO, n);
-          if (x.equals(BigInteger.ONE))
-            return false;
-          if (x.equals(n.subtract(BigInteger.ONE))) {
-            con = true;
-            break;
-          }
-        }
-        if (!con)
+        if (!strongProbablePrime(mont, a, d, r))
           return false;
       }
       return true;
@@ -765,129 +1417,212 @@ public class CalcFunctions {
       return false;
     }
   }
-  
+
+  /**
+   * A single round of the Miller-Rabin test. Writing n - 1 = 2^r * d with d odd, n is a strong
+   * probable prime to base a if a^d = 1 (mod n) or a^(2^j * d) = -1 (mod n) for some j < r.
+   * Every odd prime passes for every base. The powers are taken in Montgomery form, where 1 and
+   * -1 are compared without converting back.
+   * @param mont The Montgomery context of n, an odd number greater than 2
+   * @param a The base to test with
+   * @param d The odd part of n - 1
+   * @param r The number of factors of 2 in n - 1
+   * @return false if a is a witness to the compositeness of n, true otherwise
+   */
+  private boolean strongProbablePrime(MontgomeryContext mont, BigInteger a, BigInteger d, int r) {
+    long[] x = mont.pow(a, d);
+    if (mont.isOne(x) || mont.isMinusOne(x))
+      return true;
+    for (int j = 0; j < r - 1; j++) {
+      mont.square(x, x);
+      if (mont.isOne(x))
+        return false;
+      if (mont.isMinusOne(x))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * The Baillie-PSW probable prime test: a strong probable prime test to base 2 followed by a
+   * strong Lucas probable prime test with Selfridge's parameters. The two tests tend to fail on
+   * different composites, and no composite is known to pass both.
+   * @param n An odd number greater than 2
+   * @return true if n is a probable prime, false if n is composite
+   */
+  private boolean bailliePSW(BigInteger n) {
+    MontgomeryContext mont = new MontgomeryContext(n);
+    BigInteger nM = n.subtract(BigInteger.ONE);
+    int r = nM.getLowestSetBit();
+    if (!strongProbablePrime(mont, TWO, nM.shiftRight(r), r))
+      return false;
+    // No suitable D exists for perfect squares, and the search below would never end
+    BigInteger root = iroot(n, 2);
+    if (root.multiply(root).equals(n))
+      return false;
+    // Selfridge's method: the first D in 5, -7, 9, -11, 13, ... with Jacobi symbol (D/n) = -1
+    BigInteger d = FIVE;
+    while (true) {
+      BigInteger j = jacobi(d, n);
+      if (j.signum() == -1)
+        break;
+      if (j.signum() == 0 && !d.abs().equals(n))
+        return false;
+      d = d.signum() == 1 ? d.add(TWO).negate() : d.negate().add(TWO);
+    }
+    return strongLucasProbablePrime(mont, d);
+  }
+
+  /**
+   * The strong Lucas probable prime test with P = 1 and Q = (1 - D) / 4. Writing n + 1 = 2^s * k
+   * with k odd, n is a strong Lucas probable prime if U_k = 0 (mod n) or V_(2^r * k) = 0 (mod n)
+   * for some r < s. The sequences are computed by binary doubling:
+   * U_2m = U_m * V_m, V_2m = V_m^2 - 2Q^m, U_(m+1) = (U_m + V_m) / 2, V_(m+1) = (D*U_m + V_m) / 2
+   * All of the sequence is kept in Montgomery form, where halving and comparing with 0 work as
+   * they do on ordinary residues.
+   * @param mont The Montgomery context of n, an odd number coprime to D with (D/n) = -1
+   * @param d Selfridge's parameter D
+   * @return true if n is a strong Lucas probable prime, false if n is composite
+   */
+  private boolean strongLucasProbablePrime(MontgomeryContext mont, BigInteger d) {
+    long[] q = mont.toMontgomery(BigInteger.ONE.subtract(d).shiftRight(2));
+    long[] dMont = mont.toMontgomery(d);
+    BigInteger nP = mont.modulus().add(BigInteger.ONE);
+    int s = nP.getLowestSetBit();
+    BigInteger k = nP.shiftRight(s);
+    // u = U_m, v = V_m, qm = Q^m, starting from m = 1, and t for intermediate values
+    long[] u = mont.one(), v = mont.one(), qm = q.clone(), t = mont.zero();
+    for (int i = k.bitLength() - 2; i >= 0; i--) {
+      mont.multiply(u, v, u);
+      mont.square(v, v);
+      mont.add(qm, qm, t);
+      mont.subtract(v, t, v);
+      mont.square(qm, qm);
+      if (k.testBit(i)) {
+        mont.add(u, v, t);
+        mont.halve(t, t);
+        mont.multiply(dMont, u, u);
+        mont.add(u, v, v);
+        mont.halve(v, v);
+        long[] uNext = t;
+        t = u;
+        u = uNext;
+        mont.multiply(qm, q, qm);
+      }
+    }
+    if (mont.isZero(u) || mont.isZero(v))
+      return true;
+    for (int r = 1; r < s; r++) {
+      mont.square(v, v);
+      mont.add(qm, qm, t);
+      mont.subtract(v, t, v);
+      if (mont.isZero(v))
+        return true;
+      mont.square(qm, qm);
+    }
+    return false;
+  }
+
   /**
    * Determines primality of a Mersenne number, i.e. a number of the form 2^n - 1, using the
    * deterministic Lucas-Lehmer primality test. This is a faster test than Miller-Rabin, and thus
-   * supports computing higher numbers.
+   * supports computing higher numbers. Small exponents are squared in a Montgomery context.
+   * Larger ones are squared with a floating point weighted transform that reduces modulo 2^n - 1
+   * for free; if its rounding error ever gets too close to 0.5, the test is repeated with exact
+   * arithmetic.
    * @param n The Mersenne number to determine the primality of
    * @return true if the Mersenne number is prime, false if the number is composite, not a Mersenne
-   * number, or exceeds the limit
+   * number, or exceeds the limit, or null if the budget ran out
    */
-  private boolean lucasLehmer(BigInteger n) {
-    if (n.compareTo(MERSENNE_LIMIT) > 0)
+  private Boolean lucasLehmer(BigInteger n) {
+    if (n.compareTo(MERSENNE_LIMIT) > 0 && !timeBounded())
       return false;
     if (n.bitLength() != n.bitCount())
       return false;
     if (n.equals(THREE)) return true;
-    BigInteger s = BigInteger.valueOf(4);
     int p = n.bitCount();
     // If the n in 2^n - 1 is composite, 2^n - 1 is composite
-    if (!isPrime(BigInteger.valueOf(p))) return false;
+    Boolean exponentPrime = isPrime(BigInteger.valueOf(p));
+    if (exponentPrime == null) return null;
+    if (!exponentPrime) return false;
+    if (p < MERSENNE_TRANSFORM_LIMIT) {
+      MontgomeryContext mont = new MontgomeryContext(n);
+      long[] s = mont.toMontgomery(BigInteger.valueOf(4)), two = mont.toMontgomery(TWO);
+      for (int i = 0; i < p - 2; i++) {
+        if (Budget.current().isExhausted())
+          return null;
+        mont.square(s, s);
+        mont.subtract(s, two, s);
+      }
+      return mont.isZero(s);
+    }
+    MersenneSquarer transform = new MersenneSquarer(p);
+    transform.set(4);
     for (int i = 0; i < p - 2; i++) {
-      s = (s.pow(2).subtract(TWO).mod(n));
+      if (Budget.current().isExhausted())
+        return null;
+      transform.squareAdd(-2);
+    }
+    if (transform.maxError() < MAX_ROUNDING_ERROR)
+      return transform.toBigInteger().signum() == 0;
+    BigInteger s = BigInteger.valueOf(4);
+    for (int i = 0; i < p - 2; i++) {
+      if (Budget.current().isExhausted())
+        return null;
+      s = mersenneReduce(s.multiply(s).subtract(TWO).add(n), p, n);
     }
     return (s.equals(BigInteger.ZERO));
   }
 
   /**
-   * Generates all primes below some biglimit using the Sieve of Atkin, then returns the number of
-   * primes less than or equal to n.
-   * Primes found during this process are added to the set primes.
-   * @param bigLimit
-   * @return
-   */
-  public BigInteger sieveOfAtkin(BigInteger bigLimit) {
-    if (bigLimit.compareTo(PRIME_GEN_LIMIT) > 0) return null;
-    if (bigLimit.signum() == -1) return bigLimit;
-    if (bigLimit.compareTo(largestChecked) <= 0) {
-      return BigInteger.valueOf(primes.headSet(bigLimit, true).size());
-    }
-    largestChecked = bigLimit;
-    int limit = bigLimit.intValue();
-    BitSet sieve = new BitSet(limit);
-    int xSquared, ySquared, n, nM;
-    // 4x^2 + y^2 = n
-    for (int x = 1; x*x < limit; x++) {
-      xSquared = x*x;
-      for (int y = 1; y*y < limit; y += 2) {
-        ySquared = y*y;
-        n = (4*xSquared) + (ySquared);
-        if (n <= limit) {
-          nM = n % 60;
-          if (nM == 1 || nM == 13 || nM == 17 ||
-            nM == 29 || nM == 37 || nM == 41 ||
-            nM == 49 || nM == 53) sieve.flip(n);
-        }
-      }
-    }
-    // 3x^2 + y^2 = n
-    for (int x = 1; x*x < limit; x += 2) {
-      xSquared = x*x;
-      for (int y = 2; y*y < limit; y += 2) {
-        ySquared = y*y;
-        n = (3*xSquared) + (ySquared);
-        if (n <= limit) {
-          nM = n % 60;
-          if (nM == 7 || nM == 19 || nM == 31 || nM == 43) sieve.flip(n);
-        }
-      }
-    }
-    // 3x^2 - y^2 = n
-    for (int x = 1; x*x < limit; x ++) {
-      xSquared = x*x;
-      for (int y = (x % 2) + 1; y*y < limit; y += 2) {
-        if (x > y) {
-          ySquared = y*y;
-          n = (3*xSquared) - (ySquared);
-          if (n <= limit) {
-            nM = n % 60;
-            if (nM == 11 || nM == 23 ||
-              nM == 47 || nM == 59) {
-              sieve.flip(n);
-            }
-          }
-        }
-      }
-    }   
-    for (int r = 7; r * r < limit; r++) {
-      if (sieve.get(r)) {
-        for (int i = r * r; i < limit; i += 2*r*r) {
-          sieve.clear(i);
-        }
-      }
-    }
-    for (int a = 7; a < limit; a++) {
-      if (sieve.get(a)) {
-        primes.add(BigInteger.valueOf(a));
-      }
-    }
-    return BigInteger.valueOf(primes.size());
+   * Reduces x modulo n = 2^p - 1 without division: since 2^p = 1 (mod n), the bits above
+   * position p can be added onto the low p bits until the result fits.
+   * @param x A non-negative integer
+   * @param p The exponent of n
+   * @param n The Mersenne number 2^p - 1
+   * @return x mod n
+   */
+  private BigInteger mersenneReduce(BigInteger x, int p, BigInteger n) {
+    while (x.bitLength() > p)
+      x = x.and(n).add(x.shiftRight(p));
+    return x.equals(n) ? BigInteger.ZERO : x;
+  }
+
+  /**
+   * Counts the primes less than or equal to n. Small n are handled by a segmented sieve of
+   * Eratosthenes, and larger n by the Lagarias-Miller-Odlyzko method, which only sieves up to
+   * about n^(2/3).
+   * @param n The number to count primes up to
+   * @return The number of primes less than or equal to n, or null if n exceeds the limit
+   */
+  public BigInteger primeCount(BigInteger n) {
+    if (n.compareTo(PRIME_COUNT_LIMIT) > 0) return null;
+    if (n.signum() == -1) return BigInteger.ZERO;
+    long count = PrimeCounting.pi(n.longValue());
+    return count < 0 ? null : BigInteger.valueOf(count);
   }
   
   /**
-   * Computes the product of all primes less than or equal to a non-negative n. If all the primes
-   * below n have not yet been computed, sieveOfAtkin is called.
+   * Computes the product of all primes less than or equal to a non-negative n. The primes are
+   * read from the prime table and multiplied together in a product tree.
    * @param n The number to find the primorial of
    * @return The primorial of n, or null if n is negative or exceeds the limit
    */
   public BigInteger primorial(BigInteger n) {
-    if (n.compareTo(SEQUENCE_LIMIT) > 0)
+    if (n.compareTo(PRIMORIAL_LIMIT) > 0)
       return null;
     if (n.signum() == -1)
       return null;
-    if (n.compareTo(largestChecked) > 0)
-      sieveOfAtkin(n);
-    BigInteger r = BigInteger.ONE;
-    for (BigInteger i : primes.headSet(n, true)) {
-      r = r.multiply(i);
-    }
-    return r;
+    long[] values = new long[primes.pi(n.longValue())];
+    for (int i = 0; i < values.length; i++)
+      values[i] = primes.get(i);
+    return ProductTree.product(values, 0, values.length);
   }
   
   /**
    * Returns 0 if a is a multiple of m, 1 is a is a quadratic residue of m, -1 if a is not a
-   * quadratic residue of m. Only defined for odd values of m. 
+   * quadratic residue of m. Only defined for odd values of m. Once the modulus fits in a long,
+   * the rest of the reduction is done by LongArithmetic.
    * @param a Number to check if a quadratic residue exists for 
    * @param m Modulus
    * @return The Jacobi symbol for a and m, or null if m is odd.
@@ -898,18 +1633,22 @@ public class CalcFunctions {
       if (m.equals(BigInteger.ONE)) return BigInteger.ONE;
       else return BigInteger.ZERO;
     }
-    BigInteger r = BigInteger.ONE;
-    BigInteger FOUR = BigInteger.valueOf(4), EIGHT = BigInteger.valueOf(8), temp;
+    // The symbol only changes sign along the way, and the low bits of m, which is odd and
+    // positive from here on, decide when
+    int r = 1;
+    BigInteger temp;
     while (true) {
+      if (m.bitLength() < 63)
+        return BigInteger.valueOf(r * LongArithmetic.jacobi(a.mod(m).longValue(), m.longValue()));
       a = a.mod(m);
+      if (a.signum() == 0)
+        return BigInteger.ZERO;
       int powerOfTwo = a.getLowestSetBit();
-      if (m.mod(EIGHT).equals(THREE) || m.mod(EIGHT).equals(FIVE)) {
-        r = r.multiply(BigInteger.ONE.negate().pow(powerOfTwo));
-      }
-      a = a.divide(TWO.pow(powerOfTwo));
-      if (a.equals(BigInteger.ONE)) return r;
-      if (!a.gcd(m).equals(BigInteger.ONE)) return BigInteger.ZERO;
-      if (a.mod(FOUR).equals(THREE) && m.mod(FOUR).equals(THREE)) r = r.negate();
+      int m8 = m.intValue() & 7;
+      if ((powerOfTwo & 1) == 1 && (m8 == 3 || m8 == 5))
+        r = -r;
+      a = a.shiftRight(powerOfTwo);
+      if ((a.intValue() & 3) == 3 && (m8 & 3) == 3) r = -r;
       temp = a;
       a = m;
       m = temp;
@@ -921,23 +1660,45 @@ public class CalcFunctions {
    * exists an integer such that x^2 = r (mod m). 0 is a trivial residue and is excluded from the
    * result set.
    * @param m Modulo
-   * @return The set of quadratic residues mod m, or null if m <= 0
+   * @return The set of quadratic residues mod m, or null if m <= 0, m > QUAD_RESIDUE_LIMIT or the
+   * budget ran out
    */
   private TreeSet<BigInteger> quadResidue(BigInteger m) {
     if (m.signum() != 1) return null;
     if (m.compareTo(QUAD_RESIDUE_LIMIT) > 0) return null;
     TreeSet<BigInteger> r = new TreeSet<BigInteger>();
+    if (m.bitLength() < 62) {
+      // Consecutive squares differ by 2i - 1, so each residue follows from the last by an addition
+      // that stays below 2m and cannot overflow
+      long n = m.longValue(), square = 0;
+      Budget budget = Budget.current();
+      for (long i = 1; i <= n / 2; i++) {
+        if ((i & 0xFFFF) == 0 && budget.isExhausted())
+          return null;
+        square += 2 * i - 1;
+        if (square >= n)
+          square -= n;
+        r.add(BigInteger.valueOf(square));
+      }
+      return r;
+    }
     // Symmetrically, one needs only to check until m/2 for residues
     for (BigInteger i = BigInteger.ONE; i.compareTo(m.divide(TWO)) < 1; i = i.add(BigInteger.ONE)) {
+      if (Budget.current().isExhausted())
+        return null;
       r.add(i.modPow(TWO, m));
     }
     return r;
   }
 
   /**
-   * Converts the result of isPrime to a string of "Prime", "Composite", or "N/A"
+   * Converts the result of isPrime to a string of "Prime", "Proven prime", "Probable prime",
+   * "Composite", or "N/A"
    * @param x The number to check the primality of
-   * @return "Prime" or "Composite" if the number if prime or composite, "N/A" if
+   * @return "Prime" or "Composite" if the number if prime or composite, "Proven prime" if the
+   * number passed the Baillie-PSW test and a primality certificate was found for it,
+   * "Probable prime" if it passed the Baillie-PSW test but exceeds AUTOMATIC_PROOF_LIMIT or could
+   * not be proven prime, "N/A" if
    * the number is 0 or 1, or null if x exceeds some limit
    */
   public String stringifyPrime(BigInteger x) {
@@ -946,26 +1707,33 @@ public class CalcFunctions {
     Boolean result = isPrime(x);
     if (result == null)
       return null;
-    if (result)
-      return "Prime";
+    if (result) {
+      if (isProvenRange(x))
+        return "Prime";
+      if (x.abs().compareTo(AUTOMATIC_PROOF_LIMIT) <= 0 && certify(x.abs()) != null)
+        return "Proven prime";
+      return "Probable prime";
+    }
     else return "Composite";
   }
 
   /**
    * Presents the results of the factor method as a prime factorization string, e.g. 2^2 * 3 * 5^3.
    * @param n The integer to factor
-   * @return The prime factorization of n as a string
+   * @return The prime factorization of n as a string, or null if n exceeds the factorization
+   * limit or could not be factored
    */
   public String stringifyFactors(BigInteger n) {
     n = n.abs();
     if (n.compareTo(BigInteger.ONE) <= 0) return null;
-    if (n.compareTo(FACTORIZATION_LIMIT) > 0) return null;
+    if (n.compareTo(factorizationLimit()) > 0) return null;
     String r = "";
     Map<BigInteger, BigInteger> factors = factor(n);
+    if (factors == null) return null;
     Iterator<BigInteger> it = factors.keySet().iterator();
     while(it.hasNext()) {
       BigInteger e = it.next();
-      r += e + (factors.get(e) == BigInteger.ONE ? "" : "^" + factors.get(e))
+      r += e + (factors.get(e).equals(BigInteger.ONE) ? "" : "^" + factors.get(e))
         + (it.hasNext() ? " \u00D7 " : "");
     }
     return r;
@@ -976,13 +1744,15 @@ public class CalcFunctions {
    * number has is equal to the product of every prime power plus one. This method enumerates these
    * divisors through recursion.
    * @param n The number to find the divisors of
-   * @return The list of divisors as a string
+   * @return The list of divisors as a string, or null if n exceeds the factorization limit or
+   * could not be factored
    */
   public String stringifyDivisors(BigInteger n) {
     n = n.abs();
     if (n.compareTo(BigInteger.ONE) <= 0) return null;
-    if (n.compareTo(FACTORIZATION_LIMIT) > 0) return null;
+    if (n.compareTo(factorizationLimit()) > 0) return null;
     TreeMap<BigInteger, BigInteger> factors = factor(n);
+    if (factors == null) return null;
     TreeSet<BigInteger> divisors = new TreeSet<BigInteger>();
     divisorsRecurse(factors.firstKey(), factors, divisors, BigInteger.ONE);
     return divisors.toString();
@@ -991,7 +1761,8 @@ public class CalcFunctions {
   public String stringifyQuadResidue(BigInteger n) {
     if (n.signum() != 1) return null;
     if (n.compareTo(QUAD_RESIDUE_LIMIT) > 0) return null;
-    return quadResidue(n).toString();
+    TreeSet<BigInteger> residues = quadResidue(n);
+    return residues == null ? null : residues.toString();
   }
 
   /**
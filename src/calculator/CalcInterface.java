@@ -14,6 +14,12 @@ import java.awt.datatransfer.UnsupportedFlavorException;
 import java.awt.event.ActionEvent;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import javax.swing.Action;
 import javax.swing.BorderFactory;
@@ -23,6 +29,8 @@ import javax.swing.JOptionPane;
 import javax.swing.JRootPane;
 import javax.swing.JTextField;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
 import javax.swing.border.BevelBorder;
@@ -38,6 +46,14 @@ public class CalcInterface implements Runnable {
   
   private final static Color DISPLAY_BG_COLOR = new Color(68, 68, 68);
   private final static Color ERROR_BG_COLOR = new Color(100, 40, 40);
+  // Milliseconds between updates of the elapsed time while a computation runs
+  private final static int PROGRESS_INTERVAL = 100;
+  // Computations run here, one at a time, so that the event dispatch thread never blocks
+  private final static ExecutorService WORKER = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "calc-worker");
+    t.setDaemon(true);
+    return t;
+  });
   
   private CalcButton[] numbers;
   private CalcButton[] unaryOperators;
@@ -56,6 +72,8 @@ public class CalcInterface implements Runnable {
   private boolean inOp = false;
   private boolean newOp = true;
   private boolean cleared = false;
+  private Future<?> job;
+  private CompletableFuture<?> jobResult;
   private static CalcFunctions c = new CalcFunctions();
   
   private static CalcButton makeButton(String text, int type) {
@@ -152,52 +170,52 @@ public class CalcInterface implements Runnable {
         "Negate",
         9, 2, x -> x.negate()),
     PRIMES("\\pi(n)",
-        "<html>Primes less than n<br><b>Limit:</b> 7 digits</html>",
-        4, 2, x -> c.sieveOfAtkin(x)),
+        "<html>Primes less than n<br><b>Limit:</b> 16 digits</html>",
+        4, 2, x -> c.primeCount(x)),
     ISQRT("\\lfloor{\\sqrt{n}}\\rfloor",
         "<html>Integer square root<br><b>Limit:</b> 2000 digits</html>",
         0, 6, x-> c.isqrt(x)),
     FACTORIAL("n!",
-        "<html>Factorial<br><b>Limit:</b> 4 digits</html>",
+        "<html>Factorial<br><b>Limit:</b> 6 digits</html>",
         6, 2, x -> c.factorial(x)),
     DOUBLE_FACTORIAL("n!!",
-        "<html>Double factorial<br><b>Limit:</b> 4 digits</html>",
+        "<html>Double factorial<br><b>Limit:</b> 6 digits</html>",
         7, 2, x -> c.doubleFactorial(x)),
     DERANGEMENTS("!n",
         "<html>Derangements<br><b>Limit:</b> 4 digits</html>",
         6, 3, x -> c.derangement(x)),
     CATALAN("C_n",
-        "<html>Catalan number<br><b>Limit:</b> 4 digits</html>",
+        "<html>Catalan number<br><b>Limit:</b> 6 digits</html>",
         6, 4, x -> c.catalan(x)),
     FIBONACCI("F_n",
-        "<html>Fibonacci number<br><b>Limit:</b> 4 digits</html>",
+        "<html>Fibonacci number<br><b>Limit:</b> 7 digits</html>",
         5, 5, x -> c.fibonacci(x, BigInteger.ZERO, BigInteger.ONE)),
     LUCAS("L_n",
-        "<html>Lucas number<br><b>Limit:</b> 4 digits</html>",
+        "<html>Lucas number<br><b>Limit:</b> 7 digits</html>",
         5, 6, x -> c.fibonacci(x, BigInteger.valueOf(2), BigInteger.ONE)),
     INT_PARTITION_1("p(n)",
-        "<html>Partitions<br><b>Limit:</b> 3 digits</html>",
+        "<html>Partitions<br><b>Limit:</b> 7 digits</html>",
         6, 5, x -> c.intPartition(x)),
     SET_PARTITION_1("B_n",
-        "<html>Bell number<br><b>Limit:</b> 600</html>",
+        "<html>Bell number<br><b>Limit:</b> 2000</html>",
         6, 6, x -> c.setPartition(x)),
     NUM_DIVISORS("\\sigma_0(n)",
-        "<html>Number of divisors<br><b>Limit:</b> 12 digits</html>",
+        "<html>Number of divisors<br><b>Limit:</b> 60 digits</html>",
         3, 4, x -> c.sumDivisors(BigInteger.ZERO, x)),
     SUM_DIVISORS("\\sigma_1(n)",
-        "<html>Sum of divisors<br><b>Limit:</b> 12 digits</html>",
+        "<html>Sum of divisors<br><b>Limit:</b> 60 digits</html>",
         4, 4, x -> c.sumDivisors(BigInteger.ONE, x)),
     EULER_TOTIENT("\\phi(n)",
-        "<html>Euler's totient function<br><b>Limit:</b> 12 digits</html>",
+        "<html>Euler's totient function<br><b>Limit:</b> 60 digits</html>",
         4, 3, x -> c.jordanTotient(x, BigInteger.ONE)),
     MOBIUS("\\mu(n)",
-        "<html>Mobius function<br><b>Limit:</b> 12 digits</html>",
+        "<html>Mobius function<br><b>Limit:</b> 60 digits</html>",
         3, 3, x -> c.mobius(x)),
     CARMICHAEL("\\lambda(n)",
-        "<html>Carmichael function<br><b>Limit:</b> 12 digits</html>",
+        "<html>Carmichael function<br><b>Limit:</b> 60 digits</html>",
         0, 5, x -> c.carmichael(x)),
     PRIMORIAL("n\\#",
-        "<html>Primorial<br><b>Limit:</b> 4 digits</html>",
+        "<html>Primorial<br><b>Limit:</b> 6 digits</html>",
         5, 2, x -> c.primorial(x)),
     SQUARED("n^2",
         "Square",
@@ -212,10 +230,10 @@ public class CalcInterface implements Runnable {
         "<html>Power of 3<br><b>Limit:</b> 4 digits</html>",
         2, 6, x -> c.newPow(BigInteger.valueOf(3), x)),
     LITTLE_OMEGA("\\omega(n)",
-        "<html>Number of distinct prime factors<br><b>Limit:</b> 12 digits</html>",
+        "<html>Number of distinct prime factors<br><b>Limit:</b> 60 digits</html>",
         1, 4, x -> c.littleOmega(x)),
     BIG_OMEGA("\\Omega(n)",
-        "<html>Sum of prime factor powers<br><b>Limit:</b> 12 digits</html>",
+        "<html>Sum of prime factor powers<br><b>Limit:</b> 60 digits</html>",
         2, 4, x -> c.bigOmega(x)),
     BACKSPACE("\\leftarrow", null,
         10, 6, x -> x.divide(BigInteger.TEN));
@@ -266,16 +284,16 @@ public class CalcInterface implements Runnable {
         "Centered s-gonal number",
         4, 6, (x, y) -> c.polygonCentered(x, y)),
     BINOM_COEFF("\\binom{n}{k}",
-        "<html>Binomial coefficient<br><b>Limit:</b> 4 digits</html>",
+        "<html>Binomial coefficient<br><b>Limit:</b> 6 digits</html>",
         7, 4, (x, y) -> c.binomialCoefficient(x, y)),
     PERMUTATION("P(n,k)",
-        "<html>k-Permutation<br><b>Limit:</b> 4 digits</html>",
+        "<html>k-Permutation<br><b>Limit:</b> 6 digits</html>",
         7, 3, (x, y) -> c.permutation(x, y)),
     INT_PARTITION_2("p_k(n)",
         "<html>Partition of size k<br><b>Limit:</b> 3 digits</html>",
         7, 5, (x, y) -> c.intPartition(x, y)),
     SET_PARTITION_2("S(n,k)",
-        "<html>Stirling number of the second kind<br><b>Limit:</b> 600</html>",
+        "<html>Stirling number of the second kind<br><b>Limit:</b> 2000</html>",
         7, 6, (x, y) -> c.setPartition(x, y)),
     SUM_DIVISORS_GENERAL("\\sigma_k(n)",
         "Sum of divisors each raised to power k",
@@ -327,13 +345,13 @@ public class CalcInterface implements Runnable {
   
   private enum ListOperation implements listOperator {
     IS_PRIME("\\text{Prime?}",
-      "<html>Deterministic primality test<br><b>Limit:</b> 24 digits, 1000 digits for Mersenne numbers<html>",
+      "<html>Primality test, probabilistic above 24 digits unless proven, which is tried up to 60 digits<br><b>Limit:</b> 2000 digits, 20000 digits for Mersenne numbers<html>",
       3, 2, x -> c.stringifyPrime(x)),
     FACTOR("\\text{Factors}",
-      "<html>Prime factorization<br><b>Limit:</b> 12 digits</html>",
+      "<html>Prime factorization<br><b>Limit:</b> 60 digits</html>",
       1, 2, x -> c.stringifyFactors(x)),
     DIVISORS("\\text{Divisors}",
-      "<html>List of divisors<br><b>Limit:</b> 12 digits</html>",
+      "<html>List of divisors<br><b>Limit:</b> 60 digits</html>",
       2, 2, x -> c.stringifyDivisors(x)),
     QUAD_RESIDUES("\\text{Q.R.}",
       "<html>Quadratic residues<br><b>Limit:</b> 5 digits</html>",
@@ -364,12 +382,12 @@ public class CalcInterface implements Runnable {
   
   /**
    * Verify that string is an integer, i.e. only digits and optionally a minus sign at the start.
-   * Limits integer length from 1 to 10000 digits.
+   * Limits integer length from 1 to 20000 digits, the size of the largest Mersenne numbers tested.
    * @param s String to be verified
    * @return true if string represents an integer
    */
   private boolean verifyInteger(String s) {
-    if (!s.isEmpty() && s.length() <= 10000 + (s.charAt(0) == '-' ? 1 : 0)) {
+    if (!s.isEmpty() && s.length() <= 20000 + (s.charAt(0) == '-' ? 1 : 0)) {
       for (int i = 0; i < s.length(); i++) {
         if (i == 0 && s.charAt(i) == '-') {
           if (s.length() == 1)
@@ -399,6 +417,8 @@ public class CalcInterface implements Runnable {
    * Paste contents of clipboard to results display if it is a valid integer
    */
   private void pasteContents() {
+    if (job != null)
+      return;
     try {
       String clipStr = (String) Toolkit.getDefaultToolkit().getSystemClipboard().getData(DataFlavor.stringFlavor);
       if (verifyInteger(clipStr)) {
@@ -432,11 +452,79 @@ public class CalcInterface implements Runnable {
     numDigitsDisplay.setText(numLen + (numLen == 1 ? " digit " : " digits"));
   }
   
+  /**
+   * Runs a computation on the worker thread and hands its result to done on the event dispatch
+   * thread, so that the window stays responsive. While it runs, listDisplay offers cancelling
+   * and numDigitsDisplay shows the elapsed time. Only one computation runs at a time, and other
+   * input is ignored until it finishes or is cancelled.
+   * @param work The computation, which may return null
+   * @param done Receives the result, unless the computation was cancelled or failed
+   */
+  private <T> void compute(Supplier<T> work, Consumer<T> done) {
+    if (job != null)
+      return;
+    String listText = listDisplay.getText();
+    long start = System.nanoTime();
+    CompletableFuture<T> result = new CompletableFuture<T>();
+    Timer progress = new Timer(PROGRESS_INTERVAL,
+        e -> numDigitsDisplay.setText(elapsed(start)));
+    jobResult = result;
+    job = WORKER.submit(() -> {
+      try {
+        result.complete(work.get());
+      } catch (Throwable e) {
+        // Errors too, such as running out of memory on a huge input, or the window would stay
+        // busy until cancelled
+        result.completeExceptionally(e);
+      }
+    });
+    listDisplay.setText("Computing... (Esc to cancel)");
+    progress.setInitialDelay(0);
+    progress.start();
+    result.whenComplete((res, e) -> SwingUtilities.invokeLater(() -> {
+      progress.stop();
+      job = null;
+      jobResult = null;
+      changeDisplay();
+      if (result.isCancelled()) {
+        listDisplay.setText("Cancelled after " + elapsed(start));
+      } else if (e != null) {
+        listDisplay.setText(listText);
+        resultDisplay.setBackground(ERROR_BG_COLOR);
+        e.printStackTrace();
+      } else {
+        listDisplay.setText(listText);
+        done.accept(res);
+      }
+    }));
+  }
+  
+  /**
+   * Cancels the running computation, if any. The worker thread is interrupted, which the
+   * functions in CalcFunctions check for in their long loops.
+   */
+  private void cancel() {
+    if (job != null) {
+      job.cancel(true);
+      jobResult.cancel(false);
+    }
+  }
+  
+  /**
+   * Formats the time since start, e.g. "2.4 s".
+   * @param start The starting time, from System.nanoTime()
+   */
+  private static String elapsed(long start) {
+    return String.format("%.1f s", (System.nanoTime() - start) / 1e9);
+  }
+  
   /**
    * Action for digit (0 - 9) press
    * @param i The pressed digit
    */
   private void pressNumber(int i) {
+    if (job != null)
+      return;
     if (newOp) {
       curDisplay = BigInteger.ZERO;
       newOp = false;
@@ -455,24 +543,24 @@ public class CalcInterface implements Runnable {
   private void evaluate() {
     if (curOp != -1) {
       BinaryOperation op = BinaryOperation.values()[curOp];
-      BigInteger res;
-      if (inOp)
-        res = op.compute(operand1, curDisplay); // Pressing = button after a new operation
-      else
-        res = op.compute(operand1, operand2);     // Repressing = button
-      if (res != null) {
-        if (inOp) {
-          operand2 = curDisplay;
-          inOp = false;
+      BigInteger x = operand1;
+      // Pressing = button after a new operation, or repressing = button
+      BigInteger y = inOp ? curDisplay : operand2;
+      compute(() -> op.compute(x, y), res -> {
+        if (res != null) {
+          if (inOp) {
+            operand2 = curDisplay;
+            inOp = false;
+          }
+          curDisplay = res;
+          operand1 = res;
+          changeDisplay();
+          cleared = false;
+          newOp = true;
+        } else {
+          resultDisplay.setBackground(ERROR_BG_COLOR);
         }
-        curDisplay = res;
-        operand1 = res;
-        changeDisplay();
-        cleared = false;
-        newOp = true;
-      } else {
-        resultDisplay.setBackground(ERROR_BG_COLOR);
-      }
+      });
     }
   }
 
@@ -542,12 +630,24 @@ public class CalcInterface implements Runnable {
     rootPane.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke("BACK_SPACE"), a);
     Action action = new TextAction(a) {
       public void actionPerformed(ActionEvent e) {
+          if (job != null)
+            return;
           curDisplay = UnaryOperation.BACKSPACE.compute(curDisplay);
           changeDisplay();
       };
     };
     rootPane.getActionMap().put(a, action);
     
+    // Keyboard action for escape, cancels a running computation
+    a = "cancelAction";
+    rootPane.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke("ESCAPE"), a);
+    action = new TextAction(a) {
+      public void actionPerformed(ActionEvent e) {
+        cancel();
+      };
+    };
+    rootPane.getActionMap().put(a, action);
+    
     // Keyboard action for enter
     a = "enterAction";
     rootPane.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke("ENTER"), a);
@@ -672,21 +772,25 @@ public class CalcInterface implements Runnable {
         binaryOperators[i] = makeButton(op.toString(), 1);
       }
       binaryOperators[i].addActionListener(e -> {
+        if (job != null)
+          return;
         if (inOp) {
           // Chaining binary operators
           if (!newOp) {
             BinaryOperation oldOp = BinaryOperation.values()[curOp];
-            BigInteger res = oldOp.compute(operand1, curDisplay);
-            if (res != null) {
-              operand2 = curDisplay;
-              curDisplay = res;
-              changeDisplay();
-              operand1 = curDisplay;
-              newOp = true;
-              cleared = false;
-            } else {
-              resultDisplay.setBackground(ERROR_BG_COLOR);
-            }
+            BigInteger x = operand1, y = curDisplay;
+            compute(() -> oldOp.compute(x, y), res -> {
+              if (res != null) {
+                operand2 = curDisplay;
+                curDisplay = res;
+                changeDisplay();
+                operand1 = curDisplay;
+                newOp = true;
+                cleared = false;
+              } else {
+                resultDisplay.setBackground(ERROR_BG_COLOR);
+              }
+            });
           }
         } else {
           // New binary operator
@@ -710,19 +814,21 @@ public class CalcInterface implements Runnable {
       UnaryOperation op = UnaryOperation.values()[i];
       unaryOperators[i] = makeButton(op.toString(), 1);
       unaryOperators[i].addActionListener(e -> {
-        BigInteger res = op.compute(curDisplay);
-        if (res != null) {
-          curDisplay = res;
-          if (!inOp)
-            operand1 = res;
-          else
-            operand2 = res;
-          changeDisplay();
-          cleared = false;
-          newOp = true;
-        } else {
-          resultDisplay.setBackground(ERROR_BG_COLOR);
-        }
+        BigInteger x = curDisplay;
+        compute(() -> op.compute(x), res -> {
+          if (res != null) {
+            curDisplay = res;
+            if (!inOp)
+              operand1 = res;
+            else
+              operand2 = res;
+            changeDisplay();
+            cleared = false;
+            newOp = true;
+          } else {
+            resultDisplay.setBackground(ERROR_BG_COLOR);
+          }
+        });
       });
       if (op.toolTip != null)
         unaryOperators[i].setToolTipText(op.toolTip);
@@ -736,8 +842,8 @@ public class CalcInterface implements Runnable {
       ListOperation op = ListOperation.values()[i];
       listOperators[i] = makeButton(op.toString(), 1);
       listOperators[i].addActionListener(e -> {
-        String displayStr = op.evaluate(curDisplay);
-        listDisplay.setText(displayStr);
+        BigInteger x = curDisplay;
+        compute(() -> op.evaluate(x), displayStr -> listDisplay.setText(displayStr));
       });
       if (op.toolTip != null)
         listOperators[i].setToolTipText(op.toolTip);
@@ -758,7 +864,11 @@ public class CalcInterface implements Runnable {
     gbc.gridx = 8;
     gbc.gridy = 2;
     clear.addActionListener(e -> {
-      clearContents();
+      // While a computation runs, C cancels it instead
+      if (job != null)
+        cancel();
+      else
+        clearContents();
     });
     mainFrame.add(clear, gbc);
     
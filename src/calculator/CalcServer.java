@@ -0,0 +1,381 @@
+package calculator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+final class CalcServer {
+
+  /**
+   * A local HTTP service for the functions of the calculator, built on the JDK's
+   * com.sun.net.httpserver. A POST to /compute carries a JSON array of operations, each either a
+   * command string as in batch mode, e.g. "factor 123456789", or an object such as
+   * {"op": "jacobi", "args": [2, 15]}, where arguments are integers of at most 20000 digits,
+   * given as numbers or strings. The response is streamed as newline-delimited JSON, one object
+   * per operation in the order the operations complete, e.g. {"index": 0, "result": "252"}, with
+   * "result": null when the function returned null and an "error" member instead when the
+   * operation is invalid.
+   * A timeLimit query parameter gives each operation that many milliseconds.
+   *
+   * Connections are served on a cached pool of threads, which mostly wait, while the operations
+   * of all requests share a fixed pool with a thread per core and one CalcFunctions instance, so
+   * that its tables are computed once for every client. The instance is warmed up in the
+   * background when the server starts. If a client disconnects, its remaining operations are
+   * cancelled.
+   */
+
+  // Largest request body accepted, in bytes
+  private static final int MAX_BODY = 1 << 20;
+  private static final int MAX_OPERATIONS = 10000;
+  // Deepest nesting of JSON arrays and objects, far more than a request needs, so that the
+  // recursive parser cannot overflow the stack
+  private static final int MAX_DEPTH = 32;
+  // Run once at startup so that the prime table and the smaller caches are in place
+  private static final String[] WARM_UP = {
+      "isprime 1000000007", "factor 600851475143", "partition 1000", "bell 200"};
+
+  private final CalcFunctions functions = new CalcFunctions();
+  private final ExecutorService pool = Executors.newFixedThreadPool(
+      Runtime.getRuntime().availableProcessors(), r -> {
+        Thread t = new Thread(r, "server-worker");
+        t.setDaemon(true);
+        return t;
+      });
+  private final HttpServer server;
+
+  /**
+   * Creates the server without starting it.
+   * @param address The address to bind to, normally on the loopback interface so that only
+   * local clients can reach it
+   * @throws IOException if the port cannot be bound
+   */
+  CalcServer(InetSocketAddress address) throws IOException {
+    server = HttpServer.create(address, 0);
+    server.createContext("/compute", this::compute);
+    server.setExecutor(Executors.newCachedThreadPool());
+  }
+
+  /**
+   * Starts serving, and warms up the shared functions in the background.
+   */
+  void start() {
+    for (String command : WARM_UP)
+      pool.submit(() -> Command.evaluate(functions, command, Budget.UNLIMITED));
+    server.start();
+  }
+
+  /**
+   * Handles one batch of operations.
+   */
+  private void compute(HttpExchange exchange) throws IOException {
+    try {
+      if (!exchange.getRequestMethod().equals("POST")) {
+        exchange.getResponseHeaders().set("Allow", "POST");
+        reply(exchange, 405, "POST a JSON array of operations");
+        return;
+      }
+      List<?> operations;
+      try {
+        Object body = new JsonParser(readBody(exchange.getRequestBody())).parse();
+        if (!(body instanceof List))
+          throw new IllegalArgumentException("expected a JSON array of operations");
+        operations = (List<?>) body;
+        if (operations.size() > MAX_OPERATIONS)
+          throw new IllegalArgumentException("at most " + MAX_OPERATIONS + " operations");
+      } catch (IllegalArgumentException e) {
+        reply(exchange, 400, e.getMessage());
+        return;
+      }
+      long timeLimit = timeLimit(exchange.getRequestURI().getRawQuery());
+      exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=utf-8");
+      exchange.sendResponseHeaders(200, 0);
+      stream(operations, timeLimit, exchange.getResponseBody());
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Submits every operation to the shared pool and writes each result as soon as it is ready.
+   */
+  private void stream(List<?> operations, long timeLimit, OutputStream out) throws IOException {
+    CompletionService<String> results = new ExecutorCompletionService<String>(pool);
+    List<Future<String>> submitted = new ArrayList<Future<String>>();
+    for (int i = 0; i < operations.size(); i++) {
+      int index = i;
+      Object operation = operations.get(i);
+      submitted.add(results.submit(() -> evaluate(index, operation,
+          timeLimit > 0 ? Budget.ofMillis(timeLimit) : Budget.UNLIMITED)));
+    }
+    try {
+      for (int i = 0; i < operations.size(); i++) {
+        String line;
+        try {
+          line = results.take().get();
+        } catch (ExecutionException e) {
+          line = "{\"error\": " + quote(String.valueOf(e.getCause())) + "}";
+        }
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      // Stops the rest of the batch if the client went away
+      for (Future<String> future : submitted)
+        future.cancel(true);
+    }
+  }
+
+  /**
+   * Evaluates one operation and formats its result as a line of JSON.
+   */
+  private String evaluate(int index, Object operation, Budget budget) {
+    String prefix = "{\"index\": " + index + ", ";
+    if (operation instanceof String) {
+      String result = Command.evaluate(functions, (String) operation, budget);
+      if (result.startsWith("error: "))
+        return prefix + "\"error\": " + quote(result.substring(7)) + "}";
+      return prefix + "\"result\": "
+          + (result.equals(Command.UNDEFINED) ? "null" : quote(result)) + "}";
+    }
+    if (!(operation instanceof Map))
+      return prefix + "\"error\": \"expected a command string or an object\"}";
+    Map<?, ?> map = (Map<?, ?>) operation;
+    Object name = map.get("op"), args = map.get("args");
+    Command command = name instanceof String ? Command.named((String) name) : null;
+    if (command == null)
+      return prefix + "\"error\": " + quote("unknown command " + name) + "}";
+    List<?> list = args instanceof List ? (List<?>) args : new ArrayList<Object>();
+    if (list.size() != command.arity())
+      return prefix + "\"error\": " + quote(command.arityMessage()) + "}";
+    BigInteger[] values = new BigInteger[list.size()];
+    for (int i = 0; i < values.length; i++) {
+      Object arg = list.get(i);
+      values[i] = arg instanceof BigInteger ? (BigInteger) arg
+          : Command.parseInteger(String.valueOf(arg));
+      if (values[i] == null)
+        return prefix + "\"error\": " + quote("not an integer: " + arg) + "}";
+    }
+    Object result;
+    try {
+      result = command.apply(functions, values, budget);
+    } catch (ArithmeticException e) {
+      return prefix + "\"error\": " + quote(e.getMessage()) + "}";
+    }
+    return prefix + "\"result\": " + (result == null ? "null" : quote(result.toString())) + "}";
+  }
+
+  private static String readBody(InputStream in) throws IOException {
+    byte[] body = in.readNBytes(MAX_BODY + 1);
+    if (body.length > MAX_BODY)
+      throw new IllegalArgumentException("request body over " + MAX_BODY + " bytes");
+    return new String(body, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reads the timeLimit parameter of the query string, in milliseconds, or 0 if there is none.
+   */
+  private static long timeLimit(String query) {
+    if (query == null)
+      return 0;
+    for (String parameter : query.split("&")) {
+      if (parameter.startsWith("timeLimit=")) {
+        try {
+          return Long.parseLong(parameter.substring(10));
+        } catch (NumberFormatException e) {
+          return 0;
+        }
+      }
+    }
+    return 0;
+  }
+
+  private static void reply(HttpExchange exchange, int status, String message) throws IOException {
+    byte[] body = ("{\"error\": " + quote(message) + "}\n").getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, body.length);
+    exchange.getResponseBody().write(body);
+  }
+
+  /**
+   * Writes a string as a JSON string literal.
+   */
+  private static String quote(String s) {
+    StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char ch = s.charAt(i);
+      if (ch == '"' || ch == '\\')
+        sb.append('\\').append(ch);
+      else if (ch == '\n')
+        sb.append("\\n");
+      else if (ch < 0x20)
+        sb.append(String.format("\\u%04x", (int) ch));
+      else
+        sb.append(ch);
+    }
+    return sb.append('"').toString();
+  }
+
+  /**
+   * A small recursive descent parser for the JSON of a request. Objects become maps, arrays
+   * lists, strings strings, and true, false and null Booleans and null. Numbers that are integers
+   * of at most Command.MAX_DIGITS digits become BigIntegers, and other numbers, such as 1.5 or
+   * 1e99999999, are kept as their text, which an operation then rejects as not an integer rather
+   * than expanding it before its time limit applies. Malformed input, including arrays and
+   * objects nested more than MAX_DEPTH deep, throws an IllegalArgumentException.
+   */
+  private static final class JsonParser {
+    private final String text;
+    private int pos;
+    private int depth;
+
+    JsonParser(String text) {
+      this.text = text;
+    }
+
+    Object parse() {
+      Object value = value();
+      skipSpace();
+      if (pos != text.length())
+        throw error("unexpected text after the value");
+      return value;
+    }
+
+    private Object value() {
+      skipSpace();
+      if (pos == text.length())
+        throw error("unexpected end of input");
+      char ch = text.charAt(pos);
+      if ((ch == '[' || ch == '{') && ++depth > MAX_DEPTH)
+        throw error("nested more than " + MAX_DEPTH + " levels deep");
+      if (ch == '[') {
+        List<Object> list = new ArrayList<Object>();
+        pos++;
+        if (!consume(']')) {
+          do {
+            list.add(value());
+          } while (consume(','));
+          expect(']');
+        }
+        depth--;
+        return list;
+      }
+      if (ch == '{') {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        pos++;
+        if (!consume('}')) {
+          do {
+            skipSpace();
+            String key = string();
+            expect(':');
+            map.put(key, value());
+          } while (consume(','));
+          expect('}');
+        }
+        depth--;
+        return map;
+      }
+      if (ch == '"')
+        return string();
+      if (text.startsWith("true", pos)) {
+        pos += 4;
+        return Boolean.TRUE;
+      }
+      if (text.startsWith("false", pos)) {
+        pos += 5;
+        return Boolean.FALSE;
+      }
+      if (text.startsWith("null", pos)) {
+        pos += 4;
+        return null;
+      }
+      int start = pos;
+      while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0)
+        pos++;
+      String number = text.substring(start, pos);
+      if (!number.matches("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?"))
+        throw error("unexpected character " + ch);
+      BigInteger integer = Command.parseInteger(number);
+      return integer != null ? integer : number;
+    }
+
+    private String string() {
+      if (pos == text.length() || text.charAt(pos) != '"')
+        throw error("expected a string");
+      StringBuilder sb = new StringBuilder();
+      pos++;
+      while (true) {
+        if (pos >= text.length())
+          throw error("unterminated string");
+        char ch = text.charAt(pos++);
+        if (ch == '"')
+          return sb.toString();
+        if (ch != '\\') {
+          sb.append(ch);
+          continue;
+        }
+        if (pos >= text.length())
+          throw error("unterminated string");
+        char escape = text.charAt(pos++);
+        switch (escape) {
+          case 'b': sb.append('\b'); break;
+          case 'f': sb.append('\f'); break;
+          case 'n': sb.append('\n'); break;
+          case 'r': sb.append('\r'); break;
+          case 't': sb.append('\t'); break;
+          case 'u':
+            if (pos + 4 > text.length())
+              throw error("bad escape");
+            try {
+              sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+            } catch (NumberFormatException e) {
+              throw error("bad escape");
+            }
+            pos += 4;
+            break;
+          default: sb.append(escape);
+        }
+      }
+    }
+
+    private boolean consume(char ch) {
+      skipSpace();
+      if (pos < text.length() && text.charAt(pos) == ch) {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+
+    private void expect(char ch) {
+      if (!consume(ch))
+        throw error("expected " + ch);
+    }
+
+    private void skipSpace() {
+      while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+        pos++;
+    }
+
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException("malformed JSON at " + pos + ": " + message);
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package calculator;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+enum Command {
+
+  /**
+   * The operations of the calculator by name, for use without the window. A command is a line
+   * such as "factor 123456789" or "binom 1000 500": a name followed by its integer arguments,
+   * separated by whitespace. Every command calls the same CalcFunctions method as the matching
+   * button.
+   */
+
+  ADD("add", 2, (c, a) -> a[0].add(a[1])),
+  SUBTRACT("sub", 2, (c, a) -> a[0].subtract(a[1])),
+  MULTIPLY("mul", 2, (c, a) -> a[0].multiply(a[1])),
+  DIVIDE("div", 2, (c, a) -> c.newDivide(a[0], a[1])),
+  MOD("mod", 2, (c, a) -> c.newMod(a[0], a[1])),
+  POW("pow", 2, (c, a) -> c.newPow(a[0], a[1])),
+  MOD_INVERSE("modinv", 2, (c, a) -> c.newModInverse(a[0], a[1])),
+  GCD("gcd", 2, (c, a) -> a[0].gcd(a[1])),
+  LCM("lcm", 2, (c, a) -> c.lcm(a[0], a[1])),
+  JACOBI("jacobi", 2, (c, a) -> c.jacobi(a[0], a[1])),
+  ISQRT("isqrt", 1, (c, a) -> c.isqrt(a[0])),
+  FACTORIAL("fact", 1, (c, a) -> c.factorial(a[0])),
+  DOUBLE_FACTORIAL("dfact", 1, (c, a) -> c.doubleFactorial(a[0])),
+  DERANGEMENTS("derange", 1, (c, a) -> c.derangement(a[0])),
+  PERMUTATION("perm", 2, (c, a) -> c.permutation(a[0], a[1])),
+  BINOM_COEFF("binom", 2, (c, a) -> c.binomialCoefficient(a[0], a[1])),
+  BINOM_MOD("binommod", 3, (c, a) -> c.binomialMod(a[0], a[1], a[2])),
+  CATALAN("catalan", 1, (c, a) -> c.catalan(a[0])),
+  INT_PARTITION_1("partition", 1, (c, a) -> c.intPartition(a[0])),
+  INT_PARTITION_2("partitionk", 2, (c, a) -> c.intPartition(a[0], a[1])),
+  SET_PARTITION_1("bell", 1, (c, a) -> c.setPartition(a[0])),
+  SET_PARTITION_2("stirling", 2, (c, a) -> c.setPartition(a[0], a[1])),
+  FIBONACCI("fib", 1, (c, a) -> c.fibonacci(a[0], BigInteger.ZERO, BigInteger.ONE)),
+  LUCAS("lucas", 1, (c, a) -> c.fibonacci(a[0], BigInteger.valueOf(2), BigInteger.ONE)),
+  FIBONACCI_MOD("fibmod", 2, (c, a) -> c.fibonacciMod(a[0], a[1])),
+  POLY("polygon", 2, (c, a) -> c.polygon(a[0], a[1])),
+  POLY_CENTERED("cpolygon", 2, (c, a) -> c.polygonCentered(a[0], a[1])),
+  NUM_DIVISORS("numdiv", 1, (c, a) -> c.sumDivisors(BigInteger.ZERO, a[0])),
+  SUM_DIVISORS("sumdiv", 1, (c, a) -> c.sumDivisors(BigInteger.ONE, a[0])),
+  SUM_DIVISORS_GENERAL("sigma", 2, (c, a) -> c.sumDivisors(a[0], a[1])),
+  EULER_TOTIENT("totient", 1, (c, a) -> c.jordanTotient(a[0], BigInteger.ONE)),
+  JORDAN_TOTIENT("jordan", 2, (c, a) -> c.jordanTotient(a[0], a[1])),
+  MOBIUS("mobius", 1, (c, a) -> c.mobius(a[0])),
+  CARMICHAEL("carmichael", 1, (c, a) -> c.carmichael(a[0])),
+  LITTLE_OMEGA("omega", 1, (c, a) -> c.littleOmega(a[0])),
+  BIG_OMEGA("bigomega", 1, (c, a) -> c.bigOmega(a[0])),
+  PRIMES("primepi", 1, (c, a) -> c.primeCount(a[0])),
+  PRIMORIAL("primorial", 1, (c, a) -> c.primorial(a[0])),
+  IS_PRIME("isprime", 1, (c, a) -> c.stringifyPrime(a[0])),
+  FACTOR("factor", 1, (c, a) -> c.stringifyFactors(a[0])),
+  DIVISORS("divisors", 1, (c, a) -> c.stringifyDivisors(a[0])),
+  QUAD_RESIDUES("qr", 1, (c, a) -> c.stringifyQuadResidue(a[0]));
+
+  // Printed when a function returns null, i.e. for invalid input, a limit, or a budget running out
+  static final String UNDEFINED = "undefined";
+  // Longest argument accepted, in digits, as in the window
+  static final int MAX_DIGITS = 20000;
+
+  private static final Map<String, Command> BY_NAME = new HashMap<String, Command>();
+
+  static {
+    for (Command command : values())
+      BY_NAME.put(command.name, command);
+  }
+
+  private final String name;
+  private final int arity;
+  private final BiFunction<CalcFunctions, BigInteger[], Object> function;
+
+  Command(String name, int arity, BiFunction<CalcFunctions, BigInteger[], Object> function) {
+    this.name = name;
+    this.arity = arity;
+    this.function = function;
+  }
+
+  /**
+   * Looks up a command by name, ignoring case.
+   * @param name The name of the command, e.g. "binom"
+   * @return The command, or null if there is none by that name
+   */
+  static Command named(String name) {
+    return BY_NAME.get(name.toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * Parses an argument: digits with an optional minus sign, at most MAX_DIGITS of them, so that
+   * no argument costs more to read than the computations are allowed to take.
+   * @param s The argument, e.g. "-123"
+   * @return The integer, or null if s is not one
+   */
+  static BigInteger parseInteger(String s) {
+    int sign = s.startsWith("-") ? 1 : 0;
+    if (s.length() == sign || s.length() - sign > MAX_DIGITS)
+      return null;
+    for (int i = sign; i < s.length(); i++) {
+      if (s.charAt(i) < '0' || s.charAt(i) > '9')
+        return null;
+    }
+    return new BigInteger(s);
+  }
+
+  int arity() {
+    return arity;
+  }
+
+  /**
+   * Runs the command under a budget.
+   * @param c The functions to use, which may be shared between threads
+   * @param args The arguments, as many as the arity of the command
+   * @param budget The budget for the computation
+   * @return The result, a BigInteger, Boolean or String, or null if the function returned null
+   * @throws ArithmeticException if BigInteger rejects the arguments, e.g. on division by zero
+   */
+  Object apply(CalcFunctions c, BigInteger[] args, Budget budget) {
+    return c.withBudget(budget, () -> function.apply(c, args));
+  }
+
+  /**
+   * Parses and evaluates a single command under a budget.
+   * @param c The functions to use, which may be shared between threads
+   * @param line The command, e.g. "binom 1000 500"
+   * @param budget The budget for the computation
+   * @return The result as text, UNDEFINED if the function returned null, or a message starting
+   * with "error:" if the line is not a valid command
+   */
+  static String evaluate(CalcFunctions c, String line, Budget budget) {
+    String[] tokens = line.trim().split("\\s+");
+    Command command = named(tokens[0]);
+    if (command == null)
+      return "error: unknown command " + tokens[0];
+    if (tokens.length - 1 != command.arity)
+      return "error: " + command.arityMessage();
+    BigInteger[] args = new BigInteger[command.arity];
+    for (int i = 0; i < args.length; i++) {
+      args[i] = parseInteger(tokens[i + 1]);
+      if (args[i] == null)
+        return "error: not an integer: " + tokens[i + 1];
+    }
+    Object result;
+    try {
+      result = command.apply(c, args, budget);
+    } catch (ArithmeticException e) {
+      return "error: " + e.getMessage();
+    }
+    return result == null ? UNDEFINED : result.toString();
+  }
+
+  /**
+   * Describes the arity, e.g. "binom takes 2 arguments".
+   */
+  String arityMessage() {
+    return name + " takes " + arity + (arity == 1 ? " argument" : " arguments");
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,312 @@
+package calculator;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+final class EllipticCurveMethod {
+
+  /**
+   * Lenstra's elliptic curve factoring method. Each curve is a Montgomery curve
+   * By^2 = x^3 + Ax^2 + x chosen with Suyama's parametrization, so its group order modulo any
+   * prime is divisible by 12. Only x-coordinates are tracked, in projective (X : Z) form. Stage 1
+   * multiplies a point by every prime power up to B1, stage 2 looks for a single extra prime up
+   * to B2 using the standard continuation. Unlike Pollard's rho, the running time depends on the
+   * size of the smallest factor rather than of n, so 20 to 35 digit factors of large numbers
+   * are within reach. Curves are independent and run in parallel on all available cores.
+   */
+
+  // Each level is {factor digits, B1, number of curves}, tuned for B2 = 100 * B1
+  private static final long[][] LEVELS = {
+      {12, 400, 20},
+      {15, 2000, 40},
+      {20, 11000, 120},
+      {25, 50000, 360},
+      {30, 250000, 900},
+      {35, 1000000, 2400}};
+  private static final int B2_MULTIPLIER = 100;
+  // Stage 2 step size, the product of the primes up to 11
+  private static final int D = 2310;
+  private static final BigInteger SIXTEEN = BigInteger.valueOf(16);
+  private static final int THREADS = Runtime.getRuntime().availableProcessors();
+  private static final ExecutorService POOL = Executors.newFixedThreadPool(THREADS, r -> {
+    Thread t = new Thread(r, "ecm-worker");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private EllipticCurveMethod() {
+  }
+
+  /**
+   * Finds a non-trivial factor of n by running curves with increasing bounds, stopping once
+   * the bounds are large enough to find a factor with the given number of digits.
+   * @param n The composite number to split, which should not be a perfect power
+   * @param maxDigits The size of the largest factor worth looking for
+   * @return A factor d of n with 1 < d < n, or null if every curve failed or the budget of the
+   * thread ran out
+   */
+  static BigInteger findFactor(BigInteger n, int maxDigits) {
+    Budget budget = Budget.current();
+    for (long[] level : LEVELS) {
+      if (budget.isExhausted())
+        return null;
+      BigInteger d = runLevel(n, (int) level[1], (int) level[2]);
+      if (d != null || level[0] >= maxDigits)
+        return d;
+    }
+    return null;
+  }
+
+  /**
+   * Runs a fixed number of curves with the same bounds, split across the worker pool. Workers
+   * stop taking new curves as soon as any of them finds a factor.
+   * @param n The number to split
+   * @param b1 The stage 1 bound
+   * @param curves The number of curves to try
+   * @return A non-trivial factor of n, or null if no curve found one
+   */
+  private static BigInteger runLevel(BigInteger n, int b1, int curves) {
+    final int b2 = b1 * B2_MULTIPLIER;
+    final BigInteger k = stage1Multiplier(b1);
+    final BitSet stage2Primes = sieve(b2);
+    final AtomicInteger remaining = new AtomicInteger(curves);
+    final AtomicReference<BigInteger> found = new AtomicReference<BigInteger>();
+    List<Future<?>> workers = new ArrayList<Future<?>>();
+    Budget budget = Budget.current();
+    for (int i = 0; i < Math.min(THREADS, curves); i++) {
+      workers.add(POOL.submit(() -> {
+        while (found.get() == null && remaining.getAndDecrement() > 0) {
+          long sigma = ThreadLocalRandom.current().nextLong(6, 1L << 32);
+          BigInteger d = runCurve(n, sigma, k, b1, b2, stage2Primes, found);
+          if (d != null)
+            found.compareAndSet(null, d);
+        }
+      }));
+    }
+    try {
+      for (Future<?> worker : workers)
+        budget.get(worker);
+    } catch (InterruptedException e) {
+      for (Future<?> worker : workers)
+        worker.cancel(true);
+      found.compareAndSet(null, BigInteger.ONE); // Signals the workers to stop
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (TimeoutException e) {
+      for (Future<?> worker : workers)
+        worker.cancel(true);
+      found.compareAndSet(null, BigInteger.ONE);
+      return null;
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+    return found.get();
+  }
+
+  /**
+   * Runs both stages of the method on a single curve.
+   * @param n The number to split
+   * @param sigma Suyama's parameter, which determines the curve and the starting point
+   * @param k The product of all prime powers up to b1
+   * @param b1 The stage 1 bound
+   * @param b2 The stage 2 bound
+   * @param stage2Primes The primes up to b2
+   * @param found Set once another curve has succeeded, in which case this one gives up early
+   * @return A non-trivial factor of n, or null if this curve did not find one
+   */
+  private static BigInteger runCurve(BigInteger n, long sigma, BigInteger k, int b1, int b2,
+      BitSet stage2Primes, AtomicReference<BigInteger> found) {
+    BigInteger s = BigInteger.valueOf(sigma);
+    BigInteger u = s.multiply(s).subtract(BigInteger.valueOf(5)).mod(n);
+    BigInteger v = s.shiftLeft(2).mod(n);
+    BigInteger u3 = u.pow(3).mod(n);
+    // (A + 2) / 4 = (v - u)^3 * (3u + v) / (16 * u^3 * v)
+    BigInteger numer = v.subtract(u).pow(3).multiply(u.multiply(BigInteger.valueOf(3)).add(v))
+        .mod(n);
+    BigInteger denom = SIXTEEN.multiply(u3).multiply(v).mod(n);
+    BigInteger g = denom.gcd(n);
+    if (!g.equals(BigInteger.ONE))
+      return g.equals(n) ? null : g;
+    Curve curve = new Curve(n, numer.multiply(denom.modInverse(n)).mod(n));
+    Point q = curve.multiply(k, new Point(u3, v.pow(3).mod(n)), found);
+    if (q == null)
+      return null;
+    g = q.z.gcd(n);
+    if (!g.equals(BigInteger.ONE))
+      return g.equals(n) ? null : g;
+    return stage2(curve, q, b1, b2, stage2Primes, found);
+  }
+
+  /**
+   * Stage 2 by the standard continuation. For every prime q in (b1, b2], written as q = mD +- j,
+   * qQ is the point at infinity modulo p exactly when mDQ and jQ have the same x-coordinate, so
+   * the cross products X(mDQ) * Z(jQ) - X(jQ) * Z(mDQ) are accumulated and checked with one gcd.
+   * @param curve The curve being used
+   * @param q The point left after stage 1
+   * @param b1 The stage 1 bound
+   * @param b2 The stage 2 bound
+   * @param stage2Primes The primes up to b2
+   * @param found Set once another curve has succeeded
+   * @return A non-trivial factor of n, or null if none was found
+   */
+  private static BigInteger stage2(Curve curve, Point q, int b1, int b2, BitSet stage2Primes,
+      AtomicReference<BigInteger> found) {
+    BigInteger n = curve.n;
+    // Baby steps: jQ for odd j < D/2, only those coprime to D are ever paired with a prime
+    int half = D / 2;
+    Point[] baby = new Point[half];
+    BigInteger[] babyXZ = new BigInteger[half];
+    Point q2 = curve.dbl(q);
+    baby[1] = q;
+    baby[3] = curve.add(q2, q, q);
+    for (int j = 5; j < half; j += 2)
+      baby[j] = curve.add(baby[j - 2], q2, baby[j - 4]);
+    for (int j = 1; j < half; j += 2)
+      babyXZ[j] = baby[j].x.multiply(baby[j].z).mod(n);
+    // Giant steps: mDQ, starting at the multiple of D at or below b1 so that the primes just
+    // above b1 are paired with it. While b1 < D that is m = 0, where the point at infinity
+    // (1 : 0) makes each cross product Z(jQ), so primes below D/2 are taken from the baby steps
+    int m = b1 / D;
+    Point step = curve.multiply(BigInteger.valueOf(D), q, null);
+    Point giant = m == 0 ? new Point(BigInteger.ONE, BigInteger.ZERO)
+        : curve.multiply(BigInteger.valueOf((long) m * D), q, null);
+    Point next = curve.multiply(BigInteger.valueOf((long) (m + 1) * D), q, null);
+    BigInteger acc = BigInteger.ONE;
+    for (; (long) m * D - half <= b2; m++) {
+      if (found.get() != null)
+        return null;
+      BigInteger giantXZ = giant.x.multiply(giant.z).mod(n);
+      for (int j = 1; j < half; j += 2) {
+        if (!isStage2Prime(m * D - j, b1, b2, stage2Primes)
+            && !isStage2Prime(m * D + j, b1, b2, stage2Primes))
+          continue;
+        // (X_m - X_j)(Z_m + Z_j) - X_m Z_m + X_j Z_j = X_m Z_j - X_j Z_m
+        BigInteger t = giant.x.subtract(baby[j].x).multiply(giant.z.add(baby[j].z))
+            .subtract(giantXZ).add(babyXZ[j]);
+        acc = acc.multiply(t).mod(n);
+      }
+      // The difference of next and step is giant, which cannot serve at infinity
+      Point after = m == 0 ? curve.dbl(next) : curve.add(next, step, giant);
+      giant = next;
+      next = after;
+    }
+    BigInteger g = acc.gcd(n);
+    if (g.equals(BigInteger.ONE) || g.equals(n))
+      return null;
+    return g;
+  }
+
+  private static boolean isStage2Prime(int q, int b1, int b2, BitSet primes) {
+    return q > b1 && q <= b2 && primes.get(q);
+  }
+
+  /**
+   * Computes the product of the largest power of each prime that does not exceed b1.
+   * @param b1 The stage 1 bound
+   * @return The stage 1 multiplier
+   */
+  private static BigInteger stage1Multiplier(int b1) {
+    BitSet primes = sieve(b1);
+    BigInteger k = BigInteger.ONE;
+    for (int p = 2; p > 0 && p <= b1; p = primes.nextSetBit(p + 1)) {
+      long pk = p;
+      while (pk * p <= b1)
+        pk *= p;
+      k = k.multiply(BigInteger.valueOf(pk));
+    }
+    return k;
+  }
+
+  /**
+   * Sieve of Eratosthenes, used for the stage 1 and stage 2 prime lists.
+   * @param limit The largest number to sieve
+   * @return A bit set where bit i is set exactly when i is prime
+   */
+  private static BitSet sieve(int limit) {
+    BitSet primes = new BitSet(limit + 1);
+    primes.set(2, limit + 1);
+    for (int p = 2; (long) p * p <= limit; p = primes.nextSetBit(p + 1)) {
+      for (int i = p * p; i <= limit; i += p)
+        primes.clear(i);
+    }
+    return primes;
+  }
+
+  /**
+   * A point in projective (X : Z) coordinates. The point at infinity has Z = 0.
+   */
+  private static final class Point {
+    final BigInteger x, z;
+
+    Point(BigInteger x, BigInteger z) {
+      this.x = x;
+      this.z = z;
+    }
+  }
+
+  /**
+   * A Montgomery curve modulo n, represented by (A + 2) / 4 which is all that doubling needs.
+   */
+  private static final class Curve {
+    final BigInteger n, a24;
+
+    Curve(BigInteger n, BigInteger a24) {
+      this.n = n;
+      this.a24 = a24;
+    }
+
+    /**
+     * Computes 2P.
+     */
+    Point dbl(Point p) {
+      BigInteger sum = p.x.add(p.z), diff = p.x.subtract(p.z);
+      BigInteger t1 = sum.multiply(sum).mod(n), t2 = diff.multiply(diff).mod(n);
+      BigInteger t3 = t1.subtract(t2);
+      return new Point(t1.multiply(t2).mod(n), t3.multiply(t2.add(a24.multiply(t3))).mod(n));
+    }
+
+    /**
+     * Computes P + Q, given the difference P - Q.
+     */
+    Point add(Point p, Point q, Point diff) {
+      BigInteger u = p.x.subtract(p.z).multiply(q.x.add(q.z));
+      BigInteger v = p.x.add(p.z).multiply(q.x.subtract(q.z));
+      BigInteger sum = u.add(v), dif = u.subtract(v);
+      return new Point(diff.z.multiply(sum.multiply(sum).mod(n)).mod(n),
+          diff.x.multiply(dif.multiply(dif).mod(n)).mod(n));
+    }
+
+    /**
+     * Computes kP with the Montgomery ladder, keeping R1 - R0 = P throughout.
+     * @param k A positive multiplier
+     * @param p The point to multiply
+     * @param found If not null, checked periodically so the ladder can be abandoned
+     * @return kP, or null if the ladder was abandoned
+     */
+    Point multiply(BigInteger k, Point p, AtomicReference<BigInteger> found) {
+      Point r0 = p, r1 = dbl(p);
+      for (int i = k.bitLength() - 2; i >= 0; i--) {
+        if (found != null && (i & 1023) == 0 && found.get() != null)
+          return null;
+        if (k.testBit(i)) {
+          r0 = add(r1, r0, p);
+          r1 = dbl(r1);
+        } else {
+          r1 = add(r1, r0, p);
+          r0 = dbl(r0);
+        }
+      }
+      return r0;
+    }
+  }
+}
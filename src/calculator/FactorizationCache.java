@@ -0,0 +1,115 @@
+package calculator;
+
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class FactorizationCache {
+
+  /**
+   * Recently computed factorizations, so that asking for the factors, divisors, totient and so on
+   * of the same number factors it only once. Entries are evicted least recently used first once
+   * either the number of entries or their estimated size in bytes goes over its bound, so a few
+   * factorizations of huge numbers cannot crowd out memory any more than many small ones can.
+   * The cache may be shared between threads; it is locked only while an entry is looked up or
+   * stored, never while a number is being factored. Hits and misses are counted.
+   */
+
+  // Rough cost of an entry or a prime in the maps besides the digits of its BigIntegers
+  private static final int ENTRY_OVERHEAD = 64;
+
+  private final LinkedHashMap<BigInteger, TreeMap<BigInteger, BigInteger>> entries =
+      new LinkedHashMap<BigInteger, TreeMap<BigInteger, BigInteger>>(16, 0.75f, true);
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private int maxEntries;
+  private long maxBytes;
+  private long bytes;
+
+  /**
+   * @param maxEntries The largest number of factorizations to keep
+   * @param maxBytes The largest estimated size of the kept factorizations
+   */
+  FactorizationCache(int maxEntries, long maxBytes) {
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Looks up the factorization of n, counting a hit or a miss.
+   * @param n The factored number
+   * @return A copy of the factorization, which the caller may change, or null if n is not cached
+   */
+  TreeMap<BigInteger, BigInteger> get(BigInteger n) {
+    TreeMap<BigInteger, BigInteger> factors;
+    synchronized (this) {
+      factors = entries.get(n);
+    }
+    if (factors == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return new TreeMap<BigInteger, BigInteger>(factors);
+  }
+
+  /**
+   * Stores the complete factorization of n, evicting the least recently used entries beyond the
+   * bounds.
+   * @param n The factored number
+   * @param factors Its prime factors and their powers, which are copied
+   */
+  void put(BigInteger n, TreeMap<BigInteger, BigInteger> factors) {
+    TreeMap<BigInteger, BigInteger> copy = new TreeMap<BigInteger, BigInteger>(factors);
+    long size = size(n, copy);
+    synchronized (this) {
+      TreeMap<BigInteger, BigInteger> old = entries.put(n, copy);
+      if (old != null)
+        bytes -= size(n, old);
+      bytes += size;
+      trim();
+    }
+  }
+
+  /**
+   * Changes the bounds of the cache, evicting entries right away if it is now over them.
+   * @param maxEntries The largest number of factorizations to keep, 0 to disable the cache
+   * @param maxBytes The largest estimated size of the kept factorizations
+   */
+  synchronized void resize(int maxEntries, long maxBytes) {
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+    trim();
+  }
+
+  long hits() {
+    return hits.get();
+  }
+
+  long misses() {
+    return misses.get();
+  }
+
+  private void trim() {
+    Iterator<Map.Entry<BigInteger, TreeMap<BigInteger, BigInteger>>> eldest =
+        entries.entrySet().iterator();
+    while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+      Map.Entry<BigInteger, TreeMap<BigInteger, BigInteger>> entry = eldest.next();
+      bytes -= size(entry.getKey(), entry.getValue());
+      eldest.remove();
+    }
+  }
+
+  /**
+   * Estimates the memory held by an entry, in bytes.
+   */
+  private static long size(BigInteger n, TreeMap<BigInteger, BigInteger> factors) {
+    long size = ENTRY_OVERHEAD + n.bitLength() / 8;
+    for (Map.Entry<BigInteger, BigInteger> factor : factors.entrySet())
+      size += ENTRY_OVERHEAD + factor.getKey().bitLength() / 8 + factor.getValue().bitLength() / 8;
+    return size;
+  }
+}
@@ -0,0 +1,219 @@
+package calculator;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+final class HilbertClassPolynomial {
+
+  /**
+   * The Hilbert class polynomial H_D of a negative fundamental discriminant D, whose roots are
+   * the j-invariants of the elliptic curves with complex multiplication by the ring of integers
+   * of Q(sqrt(D)). Modulo a prime p = (u^2 + |D| v^2) / 4, H_D splits completely and each root is
+   * the j-invariant of a curve with p + 1 - u or p + 1 + u points, which is what the elliptic
+   * curve primality prover needs. The roots are the values j(tau) at the reduced quadratic forms
+   * of discriminant D, so the integer coefficients are recovered by evaluating j numerically to
+   * enough digits and rounding. Polynomials are computed on first use and then kept.
+   */
+
+  // Discriminants are used in order of class number, which is the degree of H_D
+  private static final int MAX_CLASS_NUMBER = 6;
+  private static final int MAX_DISCRIMINANT = 2000;
+  private static final int GUARD_DIGITS = 30;
+  private static final List<HilbertClassPolynomial> DISCRIMINANTS = enumerate();
+
+  // The discriminant D, and the reduced forms (a, b, c) with b^2 - 4ac = D
+  final int d;
+  private final int[][] forms;
+  private BigInteger[] coefficients;
+
+  private HilbertClassPolynomial(int d, int[][] forms) {
+    this.d = d;
+    this.forms = forms;
+  }
+
+  /**
+   * Returns every negative fundamental discriminant above -MAX_DISCRIMINANT with class number at
+   * most MAX_CLASS_NUMBER, ordered by class number and then by size.
+   * @return The list of discriminants, which must not be modified
+   */
+  static List<HilbertClassPolynomial> discriminants() {
+    return DISCRIMINANTS;
+  }
+
+  /**
+   * The class number of D, i.e. the degree of H_D.
+   */
+  int classNumber() {
+    return forms.length;
+  }
+
+  /**
+   * Computes the coefficients of H_D, from the constant term up to the leading 1.
+   * @return The coefficients of H_D
+   */
+  synchronized BigInteger[] coefficients() {
+    if (coefficients == null)
+      coefficients = compute();
+    return coefficients;
+  }
+
+  private static List<HilbertClassPolynomial> enumerate() {
+    List<HilbertClassPolynomial> list = new ArrayList<HilbertClassPolynomial>();
+    for (int d = -3; d >= -MAX_DISCRIMINANT; d--) {
+      if (!isFundamental(d))
+        continue;
+      int[][] forms = reducedForms(d);
+      if (forms.length <= MAX_CLASS_NUMBER)
+        list.add(new HilbertClassPolynomial(d, forms));
+    }
+    Collections.sort(list, (x, y) -> x.forms.length != y.forms.length
+        ? Integer.compare(x.forms.length, y.forms.length) : Integer.compare(y.d, x.d));
+    return Collections.unmodifiableList(list);
+  }
+
+  /**
+   * Determines whether d is a fundamental discriminant: either d = 1 (mod 4) and squarefree, or
+   * d = 4m with m = 2 or 3 (mod 4) and squarefree.
+   */
+  private static boolean isFundamental(int d) {
+    int m = -d;
+    if (Math.floorMod(d, 4) == 1)
+      return isSquarefree(m);
+    if (m % 4 != 0)
+      return false;
+    int r = Math.floorMod(d / 4, 4);
+    return (r == 2 || r == 3) && isSquarefree(m / 4);
+  }
+
+  private static boolean isSquarefree(int m) {
+    for (int p = 2; p * p <= m; p++) {
+      if (m % (p * p) == 0)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Lists the reduced positive definite forms ax^2 + bxy + cy^2 of discriminant d, i.e. those
+   * with |b| <= a <= c, and b >= 0 whenever |b| = a or a = c. There is exactly one for each
+   * ideal class, so their number is the class number.
+   */
+  private static int[][] reducedForms(int d) {
+    List<int[]> forms = new ArrayList<int[]>();
+    for (int a = 1; 3 * a * a <= -d; a++) {
+      for (int b = -a + 1; b <= a; b++) {
+        int numerator = b * b - d;
+        if (numerator % (4 * a) != 0)
+          continue;
+        int c = numerator / (4 * a);
+        if (c < a || (c == a && b < 0))
+          continue;
+        forms.add(new int[] {a, b, c});
+      }
+    }
+    return forms.toArray(new int[0][]);
+  }
+
+  /**
+   * Multiplies out the product of x - j(tau) over the reduced forms, with tau = (-b + sqrt(D)) / 2a.
+   * The largest root has about pi * sqrt(|D|) / ln(10) digits, and the precision is chosen to
+   * cover the product of all of them.
+   */
+  private BigInteger[] compute() {
+    double digits = GUARD_DIGITS;
+    for (int[] form : forms)
+      digits += Math.PI * Math.sqrt(-d) / form[0] / Math.log(10) + 1;
+    MathContext mc = new MathContext((int) digits, RoundingMode.HALF_EVEN);
+    BigDecimal pi = BigDecimalMath.pi(mc);
+    BigDecimal rootD = new BigDecimal(-d).sqrt(mc);
+    // Complex polynomial, real and imaginary parts of each coefficient
+    BigDecimal[][] poly = {{BigDecimal.ONE, BigDecimal.ZERO}};
+    for (int[] form : forms) {
+      BigDecimal[] j = j(form, pi, rootD, mc);
+      BigDecimal[][] next = new BigDecimal[poly.length + 1][];
+      next[poly.length] = new BigDecimal[] {BigDecimal.ONE, BigDecimal.ZERO};
+      for (int i = poly.length - 1; i >= 0; i--) {
+        BigDecimal[] shifted = (i == 0) ? new BigDecimal[] {BigDecimal.ZERO, BigDecimal.ZERO}
+            : poly[i - 1];
+        next[i] = subtract(shifted, multiply(poly[i], j, mc));
+      }
+      poly = next;
+    }
+    BigDecimal tolerance = new BigDecimal("0.001");
+    BigInteger[] result = new BigInteger[poly.length];
+    for (int i = 0; i < poly.length; i++) {
+      BigDecimal rounded = poly[i][0].setScale(0, RoundingMode.HALF_EVEN);
+      if (poly[i][0].subtract(rounded).abs().compareTo(tolerance) > 0
+          || poly[i][1].abs().compareTo(tolerance) > 0)
+        throw new IllegalStateException("Class polynomial of " + d + " did not round to integers");
+      result[i] = rounded.toBigIntegerExact();
+    }
+    return result;
+  }
+
+  /**
+   * Evaluates j(tau) = E4(q)^3 / (q * prod (1 - q^k)^24) with q = e^(2 pi i tau), where
+   * E4(q) = 1 + 240 * sum sigma_3(k) q^k. For a reduced form |q| <= e^(-pi sqrt(3)), so the
+   * series converge at better than two digits per term.
+   */
+  private BigDecimal[] j(int[] form, BigDecimal pi, BigDecimal rootD, MathContext mc) {
+    int a = form[0], b = form[1];
+    BigDecimal modulus = BigDecimalMath.exp(pi.multiply(rootD).divide(BigDecimal.valueOf(a), mc)
+        .negate(), mc);
+    BigDecimal angle = pi.multiply(BigDecimal.valueOf(-b)).divide(BigDecimal.valueOf(a), mc);
+    BigDecimal[] q = {modulus.multiply(BigDecimalMath.cos(angle, mc), mc),
+        modulus.multiply(BigDecimalMath.sin(angle, mc), mc)};
+    // |q|^terms must fall below the working precision
+    double logQ = Math.PI * Math.sqrt(-d) / a;
+    int terms = (int) (mc.getPrecision() * Math.log(10) / logQ) + 2;
+    BigDecimal[] e4 = {BigDecimal.ONE, BigDecimal.ZERO};
+    BigDecimal[] product = {BigDecimal.ONE, BigDecimal.ZERO};
+    BigDecimal[] qk = {BigDecimal.ONE, BigDecimal.ZERO};
+    for (int k = 1; k <= terms; k++) {
+      qk = multiply(qk, q, mc);
+      BigDecimal coefficient = BigDecimal.valueOf(240 * sigma3(k));
+      e4 = add(e4, new BigDecimal[] {qk[0].multiply(coefficient, mc),
+          qk[1].multiply(coefficient, mc)});
+      product = multiply(product, subtract(new BigDecimal[] {BigDecimal.ONE, BigDecimal.ZERO}, qk),
+          mc);
+    }
+    BigDecimal[] p24 = multiply(product, multiply(product, product, mc), mc);
+    for (int i = 0; i < 3; i++)
+      p24 = multiply(p24, p24, mc);
+    BigDecimal[] e4Cubed = multiply(e4, multiply(e4, e4, mc), mc);
+    return divide(e4Cubed, multiply(q, p24, mc), mc);
+  }
+
+  private static long sigma3(int k) {
+    long sum = 0;
+    for (long i = 1; i <= k; i++) {
+      if (k % i == 0)
+        sum += i * i * i;
+    }
+    return sum;
+  }
+
+  private static BigDecimal[] add(BigDecimal[] x, BigDecimal[] y) {
+    return new BigDecimal[] {x[0].add(y[0]), x[1].add(y[1])};
+  }
+
+  private static BigDecimal[] subtract(BigDecimal[] x, BigDecimal[] y) {
+    return new BigDecimal[] {x[0].subtract(y[0]), x[1].subtract(y[1])};
+  }
+
+  private static BigDecimal[] multiply(BigDecimal[] x, BigDecimal[] y, MathContext mc) {
+    return new BigDecimal[] {x[0].multiply(y[0], mc).subtract(x[1].multiply(y[1], mc), mc),
+        x[0].multiply(y[1], mc).add(x[1].multiply(y[0], mc), mc)};
+  }
+
+  private static BigDecimal[] divide(BigDecimal[] x, BigDecimal[] y, MathContext mc) {
+    BigDecimal norm = y[0].multiply(y[0], mc).add(y[1].multiply(y[1], mc), mc);
+    BigDecimal[] numerator = multiply(x, new BigDecimal[] {y[0], y[1].negate()}, mc);
+    return new BigDecimal[] {numerator[0].divide(norm, mc), numerator[1].divide(norm, mc)};
+  }
+}
@@ -0,0 +1,318 @@
+package calculator;
+
+import java.util.Arrays;
+
+final class LongArithmetic {
+
+  /**
+   * Number theory on primitive longs, for arguments below 2^63 where BigInteger would allocate
+   * at every step. Products modulo an odd n are taken in Montgomery form: with R = 2^64, a and b
+   * are kept as aR and bR mod n, and their product is reduced by REDC using the high half of the
+   * 128 bit product from Math.multiplyHigh, so no division is needed. Primality is decided by the
+   * Miller-Rabin test with the seven bases of Jim Sinclair, which has no pseudoprimes below 2^64,
+   * and composites are split by trial division and Pollard's rho method with Brent's cycle
+   * detection.
+   */
+
+  private static final long[] WITNESSES = {2, 325, 9375, 28178, 450775, 9780504, 1795265022};
+  private static final int TRIAL_DIVISION_LIMIT = 1024;
+  // Number of differences multiplied together before taking a single gcd
+  private static final int BATCH_SIZE = 128;
+
+  private LongArithmetic() {
+  }
+
+  /**
+   * Multiplication modulo a fixed odd modulus below 2^63, on numbers in Montgomery form.
+   */
+  static final class Montgomery {
+    final long n;
+    // -1/n mod 2^64, and R mod n and R^2 mod n for converting into Montgomery form
+    private final long negInverse, r1, r2;
+
+    /**
+     * @param n An odd modulus, 1 < n < 2^63
+     */
+    Montgomery(long n) {
+      this.n = n;
+      long inverse = n; // Correct to 3 bits, as n * n = 1 (mod 8) for odd n
+      for (int i = 0; i < 5; i++)
+        inverse *= 2 - n * inverse;
+      negInverse = -inverse;
+      r1 = Long.remainderUnsigned(-1L, n) + 1 == n ? 0 : Long.remainderUnsigned(-1L, n) + 1;
+      long r = r1;
+      for (int i = 0; i < 64; i++) {
+        r <<= 1;
+        if (r < 0 || r >= n)
+          r -= n;
+      }
+      r2 = r;
+    }
+
+    /**
+     * Converts 0 <= a < n into Montgomery form.
+     */
+    long toMontgomery(long a) {
+      return multiply(a, r2);
+    }
+
+    long fromMontgomery(long a) {
+      return reduce(0, a);
+    }
+
+    /**
+     * The Montgomery form of 1.
+     */
+    long one() {
+      return r1;
+    }
+
+    /**
+     * Multiplies two numbers in Montgomery form.
+     */
+    long multiply(long a, long b) {
+      return reduce(Math.multiplyHigh(a, b), a * b);
+    }
+
+    long add(long a, long b) {
+      long s = a - (n - b);
+      return s < 0 ? s + n : s;
+    }
+
+    long subtract(long a, long b) {
+      long s = a - b;
+      return s < 0 ? s + n : s;
+    }
+
+    /**
+     * Raises a number in Montgomery form to a power.
+     */
+    long pow(long a, long e) {
+      long result = r1;
+      while (e != 0) {
+        if ((e & 1) != 0)
+          result = multiply(result, a);
+        a = multiply(a, a);
+        e >>>= 1;
+      }
+      return result;
+    }
+
+    /**
+     * REDC: computes (hi * 2^64 + lo) / R mod n for a product below nR. With m = lo * (-1/n),
+     * lo + m * n is 0 mod 2^64, so the result is hi plus the high half of m * n, plus a carry
+     * whenever lo is not 0.
+     */
+    private long reduce(long hi, long lo) {
+      long m = lo * negInverse;
+      long mn = Math.multiplyHigh(m, n) + ((m >> 63) & n); // Unsigned high half of m * n
+      long t = hi + mn + (lo != 0 ? 1 : 0);
+      return t >= n || t < 0 ? t - n : t;
+    }
+  }
+
+  /**
+   * Determines whether n is prime, deterministically for every long.
+   * @param n Any long
+   * @return true if n is prime
+   */
+  static boolean isPrime(long n) {
+    if (n < 2)
+      return false;
+    if (n < 4)
+      return true;
+    if ((n & 1) == 0 || n % 3 == 0)
+      return false;
+    if (n < 25)
+      return true;
+    Montgomery mont = new Montgomery(n);
+    long d = n - 1;
+    int r = Long.numberOfTrailingZeros(d);
+    d >>>= r;
+    long one = mont.one(), minusOne = n - one;
+    for (long a : WITNESSES) {
+      a %= n;
+      if (a == 0)
+        continue;
+      long x = mont.pow(mont.toMontgomery(a), d);
+      if (x == one || x == minusOne)
+        continue;
+      boolean composite = true;
+      for (int j = 1; j < r && composite; j++) {
+        x = mont.multiply(x, x);
+        if (x == one)
+          return false;
+        composite = x != minusOne;
+      }
+      if (composite)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Computes the Jacobi symbol (a / n).
+   * @param a Any non-negative long
+   * @param n An odd positive long
+   * @return The Jacobi symbol, -1, 0 or 1
+   */
+  static int jacobi(long a, long n) {
+    a %= n;
+    int result = 1;
+    while (a != 0) {
+      int twos = Long.numberOfTrailingZeros(a);
+      a >>>= twos;
+      if ((twos & 1) == 1 && ((n & 7) == 3 || (n & 7) == 5))
+        result = -result;
+      if ((a & 3) == 3 && (n & 3) == 3)
+        result = -result;
+      long t = n % a;
+      n = a;
+      a = t;
+    }
+    return n == 1 ? result : 0;
+  }
+
+  /**
+   * Computes the integer square root of a non-negative long.
+   */
+  static long isqrt(long n) {
+    if (n < 2)
+      return n;
+    // The double estimate may be off by one either way, and squaring it could overflow
+    long r = (long) Math.sqrt((double) n);
+    while (r > n / r)
+      r--;
+    while (r + 1 <= n / (r + 1))
+      r++;
+    return r;
+  }
+
+  /**
+   * Factors a positive long.
+   * @param n A positive long
+   * @return The prime factors of n in ascending order, repeated according to their powers
+   */
+  static long[] factor(long n) {
+    long[] factors = new long[64];
+    int count = 0;
+    while ((n & 1) == 0 && n > 1) {
+      factors[count++] = 2;
+      n >>= 1;
+    }
+    for (long p = 3; p < TRIAL_DIVISION_LIMIT && p * p <= n; p += 2) {
+      while (n % p == 0) {
+        factors[count++] = p;
+        n /= p;
+      }
+    }
+    if (n > 1)
+      count = split(n, factors, count);
+    Arrays.sort(factors, 0, count);
+    return Arrays.copyOf(factors, count);
+  }
+
+  /**
+   * Computes the Mobius function of a positive long, stopping at the first repeated prime.
+   * @param n A positive long
+   * @return 0 if n is divisible by a square, otherwise 1 or -1 for an even or odd number of
+   * prime factors
+   */
+  static int mobius(long n) {
+    int sign = 1;
+    if ((n & 3) == 0)
+      return 0;
+    if ((n & 1) == 0) {
+      sign = -1;
+      n >>= 1;
+    }
+    for (long p = 3; p < TRIAL_DIVISION_LIMIT && p * p <= n; p += 2) {
+      if (n % p == 0) {
+        n /= p;
+        if (n % p == 0)
+          return 0;
+        sign = -sign;
+      }
+    }
+    if (n == 1)
+      return sign;
+    long[] rest = new long[64];
+    int count = split(n, rest, 0);
+    Arrays.sort(rest, 0, count);
+    for (int i = 1; i < count; i++) {
+      if (rest[i] == rest[i - 1])
+        return 0;
+    }
+    return (count & 1) == 0 ? sign : -sign;
+  }
+
+  /**
+   * Splits n, which has no prime factors below the trial division limit, into primes.
+   * @return The new number of factors in the array
+   */
+  private static int split(long n, long[] factors, int count) {
+    if (isPrime(n)) {
+      factors[count++] = n;
+      return count;
+    }
+    long r = isqrt(n);
+    if (r * r == n)
+      return split(r, factors, split(r, factors, count));
+    long d = rho(n);
+    return split(n / d, factors, split(d, factors, count));
+  }
+
+  /**
+   * Finds a non-trivial factor of an odd composite n with Brent's variant of Pollard's rho method,
+   * trying further constants c in y^2 + c until one works.
+   */
+  private static long rho(long n) {
+    Montgomery mont = new Montgomery(n);
+    for (long c = 1; ; c++) {
+      long cm = mont.toMontgomery(c % n);
+      long y = mont.toMontgomery((c + 1) % n), x = y, ys = y, q = mont.one(), g = 1;
+      for (long r = 1; g == 1; r *= 2) {
+        x = y;
+        for (long i = 0; i < r; i++)
+          y = mont.add(mont.multiply(y, y), cm);
+        for (long k = 0; k < r && g == 1; k += BATCH_SIZE) {
+          ys = y;
+          long steps = Math.min(BATCH_SIZE, r - k);
+          for (long i = 0; i < steps; i++) {
+            y = mont.add(mont.multiply(y, y), cm);
+            q = mont.multiply(q, mont.subtract(x, y));
+          }
+          g = gcd(q, n);
+        }
+      }
+      if (g == n) {
+        // The batch overshot, so step through it again one difference at a time
+        do {
+          ys = mont.add(mont.multiply(ys, ys), cm);
+          g = gcd(mont.subtract(x, ys), n);
+        } while (g == 1);
+      }
+      if (g != n)
+        return g;
+    }
+  }
+
+  static long gcd(long a, long b) {
+    if (a == 0)
+      return b;
+    if (b == 0)
+      return a;
+    int shift = Long.numberOfTrailingZeros(a | b);
+    a >>>= Long.numberOfTrailingZeros(a);
+    while (b != 0) {
+      b >>>= Long.numberOfTrailingZeros(b);
+      if (a > b) {
+        long t = a;
+        a = b;
+        b = t;
+      }
+      b -= a;
+    }
+    return a << shift;
+  }
+}
@@ -0,0 +1,199 @@
+package calculator;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+final class MersenneSquarer {
+
+  /**
+   * Squaring modulo a Mersenne number 2^p - 1 with the irrational base discrete weighted
+   * transform of Crandall and Fagin. The residue is held as N signed digits of variable width,
+   * digit j standing for bits ceil(pj/N) to ceil(p(j+1)/N) - 1. Scaling digit j by
+   * 2^(ceil(pj/N) - pj/N) turns the cyclic convolution computed by a floating point FFT of length
+   * N directly into multiplication modulo 2^p - 1, so there is no zero padding and no separate
+   * reduction step, and every buffer is allocated once and reused for all squarings. The
+   * largest rounding error of each squaring is recorded so callers can detect a loss of
+   * precision and fall back to exact arithmetic.
+   */
+
+  // Upper bound on the average digit width, keeping products well inside a double's mantissa
+  private static final double MAX_DIGIT_BITS = 19;
+
+  // length = number of digits, half = length of the complex transform
+  private final int p, length, half;
+  private final int[] widths, bitReverse;
+  private final double[] weights, inverseWeights, cos, sin;
+  private final double[] re, im;
+  private final long[] digits;
+  private double maxError;
+
+  /**
+   * @param p The exponent of the Mersenne modulus, at least 2
+   */
+  MersenneSquarer(int p) {
+    this.p = p;
+    int n = 4;
+    while (p / (double) n > MAX_DIGIT_BITS)
+      n <<= 1;
+    length = n;
+    half = n / 2;
+    widths = new int[n];
+    weights = new double[n];
+    inverseWeights = new double[n];
+    for (int j = 0; j < n; j++) {
+      long start = ceilDiv((long) p * j, n);
+      widths[j] = (int) (ceilDiv((long) p * (j + 1), n) - start);
+      double exponent = (double) (start * n - (long) p * j) / n;
+      weights[j] = Math.pow(2, exponent);
+      inverseWeights[j] = 1 / (weights[j] * half);
+    }
+    // Powers of the primitive root of unity of order half
+    cos = new double[half];
+    sin = new double[half];
+    for (int k = 0; k < half; k++) {
+      cos[k] = Math.cos(2 * Math.PI * k / half);
+      sin[k] = Math.sin(2 * Math.PI * k / half);
+    }
+    bitReverse = new int[half];
+    int bits = Integer.numberOfTrailingZeros(half);
+    for (int j = 0; j < half; j++)
+      bitReverse[j] = bits == 0 ? 0 : Integer.reverse(j) >>> (32 - bits);
+    re = new double[half];
+    im = new double[half];
+    digits = new long[n];
+  }
+
+  private static long ceilDiv(long a, long b) {
+    return (a + b - 1) / b;
+  }
+
+  /**
+   * Sets the residue to a small value.
+   * @param value A value with |value| below 2^(width of digit 0 - 1)
+   */
+  void set(long value) {
+    Arrays.fill(digits, 0);
+    digits[0] = value;
+    maxError = 0;
+  }
+
+  /**
+   * Replaces the residue x by x^2 + c (mod 2^p - 1). The weighted digits are real, so even and
+   * odd digits are packed into the real and imaginary parts of a complex transform of half the
+   * length. Writing Z for that transform, the transform X of the digits is
+   * X_k = E_k + w^k O_k and X_(k+N/2) = E_k - w^k O_k, with E_k = (Z_k + conj(Z_(N/2-k))) / 2,
+   * O_k = (Z_k - conj(Z_(N/2-k))) / 2i and w a primitive N-th root of unity. Squaring both and
+   * packing the even and odd halves of the result back together gives E_k^2 + w^(2k) O_k^2 +
+   * 2i E_k O_k, whose inverse transform has the even digits of the square in its real part and
+   * the odd digits in its imaginary part.
+   * @param c A small constant, such as -2 for the Lucas-Lehmer test
+   */
+  void squareAdd(long c) {
+    for (int j = 0; j < half; j++) {
+      int r = bitReverse[j];
+      re[r] = digits[2 * j] * weights[2 * j];
+      im[r] = digits[2 * j + 1] * weights[2 * j + 1];
+    }
+    transform(1);
+    for (int k = 0; k <= half / 2; k++) {
+      int k2 = (half - k) & (half - 1);
+      double zr = re[k], zi = im[k], cr = re[k2], ci = -im[k2];
+      // E = (Z_k + conj(Z_k2)) / 2, O = -i (Z_k - conj(Z_k2)) / 2
+      double er = (zr + cr) / 2, ei = (zi + ci) / 2;
+      double or = (zi - ci) / 2, oi = -(zr - cr) / 2;
+      combine(k, er, ei, or, oi);
+      // The same for k2, where E and O are the conjugates of those for k
+      if (k2 != k)
+        combine(k2, er, -ei, or, -oi);
+    }
+    // The inverse transform also takes its input in bit reversed order
+    for (int j = 0; j < half; j++) {
+      int r = bitReverse[j];
+      if (j < r) {
+        double t = re[j];
+        re[j] = re[r];
+        re[r] = t;
+        t = im[j];
+        im[j] = im[r];
+        im[r] = t;
+      }
+    }
+    transform(-1);
+    long carry = c;
+    for (int j = 0; j < length; j++) {
+      double value = ((j & 1) == 0 ? re[j >> 1] : im[j >> 1]) * inverseWeights[j];
+      double rounded = Math.rint(value);
+      maxError = Math.max(maxError, Math.abs(value - rounded));
+      carry = normalize(j, (long) rounded + carry);
+    }
+    // 2^p = 1, so the carry out of the top digit wraps around to the bottom
+    for (int j = 0; carry != 0; j = (j + 1) % length)
+      carry = normalize(j, digits[j] + carry);
+  }
+
+  /**
+   * Stores E^2 + w^(2k) O^2 + 2i E O at index k.
+   */
+  private void combine(int k, double er, double ei, double or, double oi) {
+    double e2r = er * er - ei * ei, e2i = 2 * er * ei;
+    double o2r = or * or - oi * oi, o2i = 2 * or * oi;
+    double wr = cos[k], wi = sin[k];
+    re[k] = e2r + wr * o2r - wi * o2i - 2 * (er * oi + ei * or);
+    im[k] = e2i + wr * o2i + wi * o2r + 2 * (er * or - ei * oi);
+  }
+
+  /**
+   * Stores the balanced remainder of value in digit j.
+   * @return The carry into the next digit
+   */
+  private long normalize(int j, long value) {
+    int width = widths[j];
+    long halfDigit = 1L << (width - 1);
+    long digit = ((value + halfDigit) & ((1L << width) - 1)) - halfDigit;
+    digits[j] = digit;
+    return (value - digit) >> width;
+  }
+
+  /**
+   * In-place iterative radix 2 FFT on re and im, whose inputs are in bit reversed order.
+   * @param sign 1 for the forward transform, -1 for the inverse (without the scaling factor)
+   */
+  private void transform(int sign) {
+    int n = half;
+    for (int size = 2; size <= n; size <<= 1) {
+      int m = size >> 1, step = n / size;
+      for (int start = 0; start < n; start += size) {
+        for (int k = 0; k < m; k++) {
+          double wr = cos[k * step], wi = sign * sin[k * step];
+          int i = start + k, j = i + m;
+          double tr = re[j] * wr - im[j] * wi;
+          double ti = re[j] * wi + im[j] * wr;
+          re[j] = re[i] - tr;
+          im[j] = im[i] - ti;
+          re[i] += tr;
+          im[i] += ti;
+        }
+      }
+    }
+  }
+
+  /**
+   * The largest distance from an integer seen while rounding convolution outputs since the last
+   * call to set. Values approaching 0.5 mean the result can no longer be trusted.
+   * @return The maximum rounding error
+   */
+  double maxError() {
+    return maxError;
+  }
+
+  /**
+   * Converts the residue back to an integer.
+   * @return The residue, reduced into [0, 2^p - 1)
+   */
+  BigInteger toBigInteger() {
+    BigInteger value = BigInteger.ZERO;
+    for (int j = length - 1; j >= 0; j--)
+      value = value.shiftLeft(widths[j]).add(BigInteger.valueOf(digits[j]));
+    return value.mod(BigInteger.ONE.shiftLeft(p).subtract(BigInteger.ONE));
+  }
+}
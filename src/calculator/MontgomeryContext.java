@@ -0,0 +1,313 @@
+package calculator;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+final class MontgomeryContext {
+
+  /**
+   * Arithmetic modulo a fixed odd modulus n, with the constants of Montgomery multiplication
+   * computed once so that every product modulo the same n shares them. A residue is a long array
+   * as long as n, least significant word first, holding xR mod n for R = 2^(64 * words). Word
+   * products take their high halves from Math.multiplyHigh, and products are formed and reduced
+   * in a scratch array of the context, so no BigInteger is created between converting into
+   * Montgomery form and back, and the result may be written over either operand. Long chains of
+   * products modulo one number, such as Lucas sequences, run several times faster this way than
+   * with BigInteger.multiply and mod. A context keeps scratch state and must not be shared
+   * between threads.
+   */
+
+  private final BigInteger modulus;
+  private final int words;
+  private final long[] n;
+  // -1/n mod 2^64
+  private final long negInverse;
+  // R^2 mod n for converting into Montgomery form, and 1 and -1 in Montgomery form
+  private final long[] r2, one, minusOne;
+  private final long[] scratch;
+
+  /**
+   * @param modulus An odd modulus greater than 1
+   */
+  MontgomeryContext(BigInteger modulus) {
+    this.modulus = modulus;
+    words = (modulus.bitLength() + 63) >>> 6;
+    n = toWords(modulus);
+    long inverse = n[0]; // Correct to 3 bits, as n * n = 1 (mod 8) for odd n
+    for (int i = 0; i < 5; i++)
+      inverse *= 2 - n[0] * inverse;
+    negInverse = -inverse;
+    BigInteger r = BigInteger.ONE.shiftLeft(64 * words).mod(modulus);
+    r2 = toWords(r.multiply(r).mod(modulus));
+    one = toWords(r);
+    minusOne = toWords(modulus.subtract(r));
+    scratch = new long[2 * words + 1];
+  }
+
+  BigInteger modulus() {
+    return modulus;
+  }
+
+  /**
+   * Converts any integer into Montgomery form.
+   */
+  long[] toMontgomery(BigInteger x) {
+    long[] a = toWords(x.mod(modulus));
+    multiply(a, r2, a);
+    return a;
+  }
+
+  /**
+   * Converts a residue out of Montgomery form.
+   * @return The residue as an integer from 0 to n - 1
+   */
+  BigInteger toBigInteger(long[] a) {
+    long[] unit = new long[words];
+    unit[0] = 1;
+    multiply(a, unit, unit);
+    byte[] bytes = new byte[8 * words];
+    for (int i = 0; i < bytes.length; i++)
+      bytes[bytes.length - 1 - i] = (byte) (unit[i >>> 3] >>> (8 * (i & 7)));
+    return new BigInteger(1, bytes);
+  }
+
+  long[] zero() {
+    return new long[words];
+  }
+
+  long[] one() {
+    return one.clone();
+  }
+
+  boolean isZero(long[] a) {
+    for (long word : a) {
+      if (word != 0)
+        return false;
+    }
+    return true;
+  }
+
+  boolean isOne(long[] a) {
+    return Arrays.equals(a, one);
+  }
+
+  boolean isMinusOne(long[] a) {
+    return Arrays.equals(a, minusOne);
+  }
+
+  /**
+   * Sets out to a * b: the full product is formed in the scratch array and then reduced.
+   */
+  void multiply(long[] a, long[] b, long[] out) {
+    if (a == b) {
+      square(a, out);
+      return;
+    }
+    long[] t = scratch;
+    long carry = 0, bi = b[0];
+    for (int j = 0; j < words; j++) {
+      long lo = a[j] * bi, hi = multiplyHigh(a[j], bi);
+      lo += carry;
+      t[j] = lo;
+      carry = hi + carryOut(lo, carry);
+    }
+    t[words] = carry;
+    for (int i = 1; i < words; i++) {
+      bi = b[i];
+      carry = 0;
+      for (int j = 0; j < words; j++) {
+        long lo = a[j] * bi, hi = multiplyHigh(a[j], bi), tj = t[i + j];
+        lo += tj;
+        hi += carryOut(lo, tj);
+        lo += carry;
+        t[i + j] = lo;
+        carry = hi + carryOut(lo, carry);
+      }
+      t[i + words] = carry;
+    }
+    reduce(out);
+  }
+
+  /**
+   * Sets out to a^2, computing each cross product a[i] * a[j] once and doubling their sum.
+   */
+  void square(long[] a, long[] out) {
+    long[] t = scratch;
+    Arrays.fill(t, 0);
+    for (int i = 0; i < words - 1; i++) {
+      long ai = a[i], carry = 0;
+      for (int j = i + 1; j < words; j++) {
+        long lo = ai * a[j], hi = multiplyHigh(ai, a[j]), tj = t[i + j];
+        lo += tj;
+        hi += carryOut(lo, tj);
+        lo += carry;
+        t[i + j] = lo;
+        carry = hi + carryOut(lo, carry);
+      }
+      t[i + words] = carry;
+    }
+    for (int k = 2 * words - 1; k > 0; k--)
+      t[k] = (t[k] << 1) | (t[k - 1] >>> 63);
+    t[0] <<= 1;
+    long carry = 0;
+    for (int i = 0; i < words; i++) {
+      long lo = a[i] * a[i], hi = multiplyHigh(a[i], a[i]);
+      long low = t[2 * i] + lo, c = carryOut(low, lo);
+      low += carry;
+      c += carryOut(low, carry);
+      long high = t[2 * i + 1] + hi;
+      carry = carryOut(high, hi);
+      high += c;
+      carry += carryOut(high, c);
+      t[2 * i] = low;
+      t[2 * i + 1] = high;
+    }
+    reduce(out);
+  }
+
+  /**
+   * REDC on the product in the scratch array: each step adds the multiple of n that clears the
+   * lowest remaining word, so that the upper half is left holding the product divided by R.
+   */
+  private void reduce(long[] out) {
+    long[] t = scratch;
+    t[2 * words] = 0;
+    for (int i = 0; i < words; i++) {
+      long m = t[i] * negInverse, carry = 0;
+      for (int j = 0; j < words; j++) {
+        long lo = m * n[j], hi = multiplyHigh(m, n[j]), tj = t[i + j];
+        lo += tj;
+        hi += carryOut(lo, tj);
+        lo += carry;
+        t[i + j] = lo;
+        carry = hi + carryOut(lo, carry);
+      }
+      for (int k = i + words; carry != 0; k++) {
+        t[k] += carry;
+        carry = carryOut(t[k], carry);
+      }
+    }
+    // The result is below 2n, so one subtraction reduces it
+    if (t[2 * words] != 0 || compareHigh(t) >= 0) {
+      long borrow = 0;
+      for (int j = 0; j < words; j++) {
+        long tj = t[words + j], d = tj - n[j];
+        long b = carryOut(tj, d);
+        out[j] = d - borrow;
+        borrow = b + carryOut(d, out[j]);
+      }
+    } else {
+      System.arraycopy(t, words, out, 0, words);
+    }
+  }
+
+  void add(long[] a, long[] b, long[] out) {
+    if (addWords(a, b, out) != 0 || compare(out, n) >= 0)
+      subtractWords(out, n, out);
+  }
+
+  void subtract(long[] a, long[] b, long[] out) {
+    if (subtractWords(a, b, out) != 0)
+      addWords(out, n, out);
+  }
+
+  /**
+   * Sets out to a / 2, adding n first if a is odd.
+   */
+  void halve(long[] a, long[] out) {
+    long carry = 0;
+    if ((a[0] & 1) != 0)
+      carry = addWords(a, n, out);
+    else
+      System.arraycopy(a, 0, out, 0, words);
+    for (int j = 0; j < words - 1; j++)
+      out[j] = (out[j] >>> 1) | (out[j + 1] << 63);
+    out[words - 1] = (out[words - 1] >>> 1) | (carry << 63);
+  }
+
+  /**
+   * Raises an integer to a power, into Montgomery form. BigInteger.modPow already takes powers
+   * of odd moduli in Montgomery form with a sliding window, and its word products are compiled
+   * to intrinsics that the loops here cannot match, so the power is taken there and only the
+   * result is converted.
+   * @param base Any integer
+   * @param e A non-negative exponent
+   * @return base^e in Montgomery form
+   */
+  long[] pow(BigInteger base, BigInteger e) {
+    return toMontgomery(base.modPow(e, modulus));
+  }
+
+  /**
+   * The high word of the unsigned product of a and b.
+   */
+  private static long multiplyHigh(long a, long b) {
+    return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+  }
+
+  /**
+   * Returns 1 if sum = x + addend overflowed, that is if sum < addend as unsigned numbers.
+   */
+  private static long carryOut(long sum, long addend) {
+    return (sum ^ Long.MIN_VALUE) < (addend ^ Long.MIN_VALUE) ? 1 : 0;
+  }
+
+  /**
+   * Compares the upper half of the scratch array with n, as unsigned numbers.
+   */
+  private int compareHigh(long[] t) {
+    for (int j = words - 1; j >= 0; j--) {
+      if (t[words + j] != n[j])
+        return Long.compareUnsigned(t[words + j], n[j]);
+    }
+    return 0;
+  }
+
+  private long[] toWords(BigInteger x) {
+    long[] a = new long[words];
+    byte[] bytes = x.toByteArray();
+    for (int i = 0; i < bytes.length && i < 8 * words; i++)
+      a[i >>> 3] |= (bytes[bytes.length - 1 - i] & 0xFFL) << (8 * (i & 7));
+    return a;
+  }
+
+  /**
+   * Compares a and b as unsigned numbers.
+   */
+  private int compare(long[] a, long[] b) {
+    for (int j = words - 1; j >= 0; j--) {
+      if (a[j] != b[j])
+        return Long.compareUnsigned(a[j], b[j]);
+    }
+    return 0;
+  }
+
+  /**
+   * Sets out to a + b, returning the carry out of the top word.
+   */
+  private long addWords(long[] a, long[] b, long[] out) {
+    long carry = 0;
+    for (int j = 0; j < words; j++) {
+      long s = a[j] + b[j], c = carryOut(s, b[j]);
+      s += carry;
+      carry = c + carryOut(s, carry);
+      out[j] = s;
+    }
+    return carry;
+  }
+
+  /**
+   * Sets out to a - b, returning the borrow out of the top word.
+   */
+  private long subtractWords(long[] a, long[] b, long[] out) {
+    long borrow = 0;
+    for (int j = 0; j < words; j++) {
+      long aj = a[j], d = aj - b[j];
+      long c = carryOut(aj, d);
+      long e = d - borrow;
+      borrow = c + carryOut(d, e);
+      out[j] = e;
+    }
+    return borrow;
+  }
+}
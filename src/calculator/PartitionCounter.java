@@ -0,0 +1,235 @@
+package calculator;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+final class PartitionCounter {
+
+  /**
+   * The number of partitions p(n) of an integer, computed three ways. Euler's pentagonal number
+   * theorem gives p(n) = sum (-1)^(k + 1) (p(n - k(3k - 1)/2) + p(n - k(3k + 1)/2)) over k >= 1,
+   * which has about sqrt(8n/3) terms, so the table up to n costs O(n^1.5) additions. The same
+   * recurrence can be run modulo several primes just below 2^62 with plain long arrays, and the
+   * residues joined with the Chinese remainder theorem. For a single large n the
+   * Hardy-Ramanujan-Rademacher series is summed in floating point to within 1/2 of p(n), with the
+   * precision of each term matched to its size.
+   */
+
+  // Terms of the Rademacher series with cosh(x) below e^this are summed in double precision
+  private static final double DOUBLE_EXPONENT = 25;
+  private static final int GUARD_DIGITS = 10;
+
+  private PartitionCounter() {
+  }
+
+  /**
+   * Extends a table of p(0) through p(size - 1) to p(n) in a new array, leaving the given one
+   * untouched so that it can still be read by other threads. If the budget of the thread runs
+   * out the new table ends with the numbers computed so far.
+   * @param table The partition numbers, starting with p(0) = 1
+   * @param n The last partition number to add
+   * @return The partition numbers p(0) through p(n), or fewer if the budget ran out
+   */
+  static BigInteger[] extend(BigInteger[] table, int n) {
+    BigInteger[] next = Arrays.copyOf(table, n + 1);
+    Budget budget = Budget.current();
+    for (int m = table.length; m <= n; m++) {
+      if (budget.isExhausted())
+        return Arrays.copyOf(next, m);
+      BigInteger sum = BigInteger.ZERO;
+      for (int k = 1; ; k++) {
+        int first = m - k * (3 * k - 1) / 2;
+        if (first < 0)
+          break;
+        int second = first - k;
+        BigInteger term = second < 0 ? next[first] : next[first].add(next[second]);
+        sum = (k & 1) == 1 ? sum.add(term) : sum.subtract(term);
+      }
+      next[m] = sum;
+    }
+    return next;
+  }
+
+  /**
+   * Computes p(0) through p(n) modulo a prime with the pentagonal recurrence.
+   * @param n The last partition number
+   * @param p A modulus below 2^62, so that the sum of two residues cannot overflow
+   * @return The residues p(m) mod p for m = 0 .. n
+   */
+  static long[] residues(int n, long p) {
+    long[] table = new long[n + 1];
+    table[0] = 1;
+    for (int m = 1; m <= n; m++) {
+      long sum = 0;
+      for (int k = 1; ; k++) {
+        int first = m - k * (3 * k - 1) / 2;
+        if (first < 0)
+          break;
+        int second = first - k;
+        long term = second < 0 ? table[first] : table[first] + table[second];
+        if (term >= p)
+          term -= p;
+        sum = (k & 1) == 1 ? sum + term : sum - term + p;
+        if (sum >= p)
+          sum -= p;
+      }
+      table[m] = sum;
+    }
+    return table;
+  }
+
+  /**
+   * Computes p(n) from its residues modulo enough primes to exceed p(n), which is less than
+   * e^(pi sqrt(2n/3)). The residue tables are filled in parallel, one prime per task.
+   * @param n Any non-negative integer
+   * @return p(n)
+   */
+  static BigInteger multiModular(int n) {
+    int bits = (int) Math.ceil(Math.PI * Math.sqrt(2.0 * n / 3) / Math.log(2)) + 1;
+    int count = bits / 61 + 1;
+    long[] moduli = new long[count];
+    BigInteger q = BigInteger.ONE.shiftLeft(61);
+    for (int i = 0; i < count; i++) {
+      q = q.nextProbablePrime();
+      moduli[i] = q.longValue();
+    }
+    long[] residues = IntStream.range(0, count).parallel()
+        .mapToLong(i -> residues(n, moduli[i])[n]).toArray();
+    BigInteger result = BigInteger.valueOf(residues[0]), modulus = BigInteger.valueOf(moduli[0]);
+    for (int i = 1; i < count; i++) {
+      BigInteger p = BigInteger.valueOf(moduli[i]);
+      BigInteger t = BigInteger.valueOf(residues[i]).subtract(result)
+          .multiply(modulus.modInverse(p)).mod(p);
+      result = result.add(modulus.multiply(t));
+      modulus = modulus.multiply(p);
+    }
+    return result;
+  }
+
+  /**
+   * Computes p(n) with the Hardy-Ramanujan-Rademacher series
+   * p(n) = 4 sqrt(3) / (24n - 1) * sum A_k(n) / sqrt(k) * (cosh(mu / k) - sinh(mu / k) / (mu / k)),
+   * where mu = pi sqrt(24n - 1) / 6 and A_k(n) is a Kloosterman-type sum of cosines. The k-th term
+   * is about e^(mu / k), so it needs about mu / (k ln 10) digits; the series is cut off where
+   * Rademacher's bound on the remainder falls below 1/4, and terms small enough are summed as
+   * doubles.
+   * @param n A positive integer
+   * @return p(n), or null if the budget of the thread ran out
+   */
+  static BigInteger rademacher(long n) {
+    double mu = Math.PI * Math.sqrt(24.0 * n - 1) / 6;
+    int terms = 1;
+    while (remainderBound(n, terms) > 0.25)
+      terms++;
+    int digits = (int) (mu / Math.log(10)) + GUARD_DIGITS + (int) Math.log10(terms) + 1;
+    MathContext mc = new MathContext(digits, RoundingMode.HALF_EVEN);
+    BigDecimal pi = BigDecimalMath.pi(mc);
+    BigDecimal bigMu = pi.multiply(BigDecimal.valueOf(24 * n - 1).sqrt(mc), mc)
+        .divide(BigDecimal.valueOf(6), mc);
+    BigDecimal scale = BigDecimal.valueOf(3).sqrt(mc).multiply(BigDecimal.valueOf(4))
+        .divide(BigDecimal.valueOf(24 * n - 1), mc);
+    BigDecimal sum = BigDecimal.ZERO;
+    double smallSum = 0;
+    Budget budget = Budget.current();
+    for (int k = 1; k <= terms; k++) {
+      if (budget.isExhausted())
+        return null;
+      int[] angles = kloostermanAngles(n, k);
+      if (mu / k < DOUBLE_EXPONENT) {
+        double a = 0;
+        for (int j = 0; j < angles.length; j++) {
+          if (angles[j] != 0)
+            a += angles[j] * Math.cos(Math.PI * j / (6.0 * k));
+        }
+        double x = mu / k;
+        smallSum += a / Math.sqrt(k) * (Math.cosh(x) - Math.sinh(x) / x);
+        continue;
+      }
+      MathContext term = new MathContext((int) (mu / k / Math.log(10)) + GUARD_DIGITS
+          + (int) Math.log10(terms) + 1, RoundingMode.HALF_EVEN);
+      // Step through the angles pi j / (6k) by rotating with cos and sin of pi / (6k)
+      BigDecimal step = pi.divide(BigDecimal.valueOf(6L * k), term);
+      BigDecimal cosStep = BigDecimalMath.cos(step, term), sinStep = BigDecimalMath.sin(step, term);
+      BigDecimal a = BigDecimal.ZERO, cos = BigDecimal.ONE, sin = BigDecimal.ZERO;
+      int last = angles.length - 1;
+      while (angles[last] == 0)
+        last--;
+      for (int j = 0; j <= last; j++) {
+        if (angles[j] != 0)
+          a = a.add(cos.multiply(BigDecimal.valueOf(angles[j])), term);
+        BigDecimal next = cos.multiply(cosStep, term).subtract(sin.multiply(sinStep, term), term);
+        sin = sin.multiply(cosStep, term).add(cos.multiply(sinStep, term), term);
+        cos = next;
+      }
+      if (a.signum() == 0)
+        continue;
+      BigDecimal x = bigMu.divide(BigDecimal.valueOf(k), term);
+      BigDecimal e = BigDecimalMath.exp(x, term);
+      BigDecimal inverse = BigDecimal.ONE.divide(e, term);
+      BigDecimal cosh = e.add(inverse).divide(BigDecimal.valueOf(2), term);
+      BigDecimal sinh = e.subtract(inverse).divide(BigDecimal.valueOf(2), term);
+      BigDecimal bracket = cosh.subtract(sinh.divide(x, term), term);
+      sum = sum.add(a.multiply(bracket, term).divide(BigDecimal.valueOf(k).sqrt(term), term), mc);
+    }
+    sum = sum.add(new BigDecimal(smallSum), mc).multiply(scale, mc);
+    return sum.setScale(0, RoundingMode.HALF_EVEN).toBigInteger();
+  }
+
+  /**
+   * Counts the angles of A_k(n) = sum cos(pi s(h, k) - 2 pi n h / k) over 0 <= h < k prime to k,
+   * where s is the Dedekind sum. Since 6k s(h, k) is an integer, every angle is pi j / (6k) for
+   * some 0 <= j < 12k, and as cos is even the angles past pi are folded back onto 0 <= j <= 6k.
+   * @return An array whose j-th entry is the number of times pi j / (6k) occurs
+   */
+  private static int[] kloostermanAngles(long n, int k) {
+    int[] angles = new int[6 * k + 1];
+    long r = n % k;
+    for (int h = 0; h < k; h++) {
+      if (gcd(h, k) != 1)
+        continue;
+      long s = Math.round(6.0 * k * dedekindSum(h, k));
+      long j = Math.floorMod(s - 12 * (r * h % k), 12L * k);
+      angles[(int) Math.min(j, 12L * k - j)]++;
+    }
+    return angles;
+  }
+
+  /**
+   * Computes the Dedekind sum s(h, k) for coprime h and k with the reciprocity law
+   * s(h, k) + s(k, h) = (h^2 + k^2 + 1) / (12hk) - 1/4.
+   */
+  private static double dedekindSum(long h, long k) {
+    double s = 0;
+    int sign = 1;
+    while (h != 0) {
+      s += sign * (((double) h * h + (double) k * k + 1) / (12.0 * h * k) - 0.25);
+      long t = k % h;
+      k = h;
+      h = t;
+      sign = -sign;
+    }
+    return s;
+  }
+
+  /**
+   * Rademacher's bound on the remainder of the series after the first terms terms.
+   */
+  private static double remainderBound(long n, int terms) {
+    return 44 * Math.PI * Math.PI / (225 * Math.sqrt(3)) / Math.sqrt(terms)
+        + Math.PI * Math.sqrt(2) / 75 * Math.sqrt(terms / (n - 1.0))
+        * Math.sinh(Math.PI / terms * Math.sqrt(2.0 * n / 3));
+  }
+
+  private static int gcd(int a, int b) {
+    while (b != 0) {
+      int t = a % b;
+      a = b;
+      b = t;
+    }
+    return a;
+  }
+}
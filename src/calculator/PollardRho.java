@@ -0,0 +1,87 @@
+package calculator;
+
+import java.math.BigInteger;
+
+final class PollardRho {
+
+  /**
+   * Pollard's rho factoring method, using Brent's cycle detection. The iteration
+   * f(y) = y^2 + c (mod n) eventually cycles modulo every prime p dividing n, after roughly
+   * sqrt(p) steps, and the cycle is detected by taking the gcd of the accumulated differences
+   * with n. Works best when n has a factor well below 20 digits, so the number of iterations can
+   * be capped and larger factors left to the elliptic curve method.
+   */
+
+  // Number of differences multiplied together before taking a single gcd
+  private static final int BATCH_SIZE = 128;
+  // Number of polynomial constants c to try before giving up
+  private static final int MAX_ATTEMPTS = 32;
+
+  private PollardRho() {
+  }
+
+  /**
+   * Finds a non-trivial factor of n. n should be composite, odd and not a perfect power,
+   * otherwise the search may fail.
+   * @param n The composite number to split
+   * @param maxIterations The number of iterations after which the search gives up
+   * @return A factor d of n with 1 < d < n, or null if no factor was found or the budget of the
+   * thread ran out
+   */
+  static BigInteger findFactor(BigInteger n, long maxIterations) {
+    for (int c = 1; c <= MAX_ATTEMPTS; c++) {
+      BigInteger d = brent(n, BigInteger.valueOf(c), BigInteger.valueOf(c + 1), maxIterations);
+      if (d == null)
+        return null;
+      if (!d.equals(n))
+        return d;
+    }
+    return null;
+  }
+
+  /**
+   * Runs a single instance of Brent's variant of the rho method.
+   * @param n The number to split
+   * @param c The constant of the iterated polynomial y^2 + c
+   * @param y0 The starting value of the iteration
+   * @param maxIterations The number of iterations after which the search gives up
+   * @return A non-trivial factor of n, n itself if the cycle closed modulo n, or null if the
+   * iteration limit was reached or the budget of the thread ran out
+   */
+  private static BigInteger brent(BigInteger n, BigInteger c, BigInteger y0, long maxIterations) {
+    // x = saved value, y = running value, ys = value at the start of the current batch,
+    // q = product of |x - y| over the batch, g = gcd(q, n), r = current power of two
+    BigInteger x = y0, y = y0, ys = y0, q = BigInteger.ONE, g = BigInteger.ONE;
+    long r = 1;
+    Budget budget = Budget.current();
+    while (g.equals(BigInteger.ONE)) {
+      if (r > maxIterations || budget.isExhausted())
+        return null;
+      x = y;
+      for (long i = 0; i < r; i++)
+        y = y.multiply(y).add(c).mod(n);
+      long k = 0;
+      while (k < r && g.equals(BigInteger.ONE)) {
+        if (budget.isExhausted())
+          return null;
+        ys = y;
+        long steps = Math.min(BATCH_SIZE, r - k);
+        for (long i = 0; i < steps; i++) {
+          y = y.multiply(y).add(c).mod(n);
+          q = q.multiply(x.subtract(y).abs()).mod(n);
+        }
+        g = q.gcd(n);
+        k += BATCH_SIZE;
+      }
+      r *= 2;
+    }
+    if (g.equals(n)) {
+      // The batch overshot, so step through it again one difference at a time
+      do {
+        ys = ys.multiply(ys).add(c).mod(n);
+        g = x.subtract(ys).abs().gcd(n);
+      } while (g.equals(BigInteger.ONE));
+    }
+    return g;
+  }
+}
@@ -0,0 +1,354 @@
+package calculator;
+
+import java.math.BigInteger;
+import java.util.List;
+
+public abstract class PrimalityCertificate {
+
+  /**
+   * A proof that a number is prime, which can be checked much faster than it was found. Each
+   * certificate reduces the primality of n to the primality of some smaller numbers, which carry
+   * certificates of their own, down to numbers below 2^64 that are checked directly with the
+   * deterministic Miller-Rabin test. verify() checks the whole chain using nothing but modular
+   * arithmetic, so it does not need to trust the prover that produced it.
+   */
+
+  private static final BigInteger SMALL_LIMIT = BigInteger.ONE.shiftLeft(64);
+  // Miller-Rabin with these bases is deterministic up to 3.3 * 10^24
+  private static final int[] SMALL_BASES = {2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37};
+  private static final BigInteger TWO = BigInteger.valueOf(2);
+  private static final BigInteger THREE = BigInteger.valueOf(3);
+
+  final BigInteger n;
+
+  private PrimalityCertificate(BigInteger n) {
+    this.n = n;
+  }
+
+  /**
+   * The number that this certificate proves prime.
+   * @return n
+   */
+  public BigInteger getN() {
+    return n;
+  }
+
+  /**
+   * Checks the certificate and every certificate it depends on.
+   * @return true if the certificate proves that n is prime
+   */
+  public abstract boolean verify();
+
+  /**
+   * Writes the certificate out one step per line, indenting the certificates of the smaller
+   * primes that each step relies on.
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    write(sb, 0);
+    return sb.toString();
+  }
+
+  abstract void write(StringBuilder sb, int depth);
+
+  private static void indent(StringBuilder sb, int depth) {
+    for (int i = 0; i < depth; i++)
+      sb.append("  ");
+  }
+
+  /**
+   * A certificate for n < 2^64, checked directly.
+   * @param n The prime
+   * @return The certificate, or null if n is not a prime below 2^64
+   */
+  static PrimalityCertificate small(BigInteger n) {
+    if (!isSmallPrime(n))
+      return null;
+    return new Small(n);
+  }
+
+  /**
+   * A certificate for n from the partial factorization n - 1 = F * R, in the form of Pocklington's
+   * theorem, or of the Brillhart-Lehmer-Selfridge theorem when F is only above n^(1/3).
+   * @param n The prime
+   * @param factors The certificates of the distinct primes q dividing F
+   * @param exponents The power of each q in F
+   * @param witnesses For each q, a base a with a^(n-1) = 1 and gcd(a^((n-1)/q) - 1, n) = 1
+   * @return The certificate
+   */
+  static PrimalityCertificate nMinusOne(BigInteger n, List<PrimalityCertificate> factors,
+      List<Integer> exponents, List<BigInteger> witnesses) {
+    return new NMinusOne(n, factors.toArray(new PrimalityCertificate[0]),
+        exponents.stream().mapToInt(Integer::intValue).toArray(),
+        witnesses.toArray(new BigInteger[0]));
+  }
+
+  /**
+   * An Atkin-Morain certificate: a curve y^2 = x^3 + ax + b modulo n with a point P, such that
+   * m * P is the point at infinity while (m / q) * P is not, for a prime q > (n^(1/4) + 1)^2.
+   * @param n The prime
+   * @param a The coefficient of x
+   * @param b The constant coefficient
+   * @param point The point P
+   * @param m The order of the curve
+   * @param q The certificate of the large prime dividing m
+   * @return The certificate
+   */
+  static PrimalityCertificate ellipticCurve(BigInteger n, BigInteger a, BigInteger b, Point point,
+      BigInteger m, PrimalityCertificate q) {
+    return new EllipticCurve(n, a, b, point, m, q);
+  }
+
+  /**
+   * The deterministic Miller-Rabin test, valid below 2^64.
+   * @param n Any integer
+   * @return true if n is a prime below 2^64
+   */
+  static boolean isSmallPrime(BigInteger n) {
+    if (n.signum() <= 0 || n.compareTo(SMALL_LIMIT) >= 0)
+      return false;
+    for (int base : SMALL_BASES) {
+      BigInteger a = BigInteger.valueOf(base);
+      if (n.equals(a))
+        return true;
+      if (n.mod(a).signum() == 0)
+        return false;
+    }
+    if (n.equals(BigInteger.ONE))
+      return false;
+    BigInteger nM = n.subtract(BigInteger.ONE);
+    int r = nM.getLowestSetBit();
+    BigInteger d = nM.shiftRight(r);
+    for (int base : SMALL_BASES) {
+      BigInteger x = BigInteger.valueOf(base).modPow(d, n);
+      if (x.equals(BigInteger.ONE) || x.equals(nM))
+        continue;
+      boolean passed = false;
+      for (int j = 0; j < r - 1 && !passed; j++) {
+        x = x.multiply(x).mod(n);
+        passed = x.equals(nM);
+      }
+      if (!passed)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * The smallest integer above (n^(1/4) + 1)^2, the bound on the large prime in an elliptic
+   * curve certificate. Uses floor(n^(1/4)) + 2 in place of n^(1/4) + 1, so it is slightly larger.
+   * @param n A positive integer
+   * @return The bound
+   */
+  static BigInteger ellipticCurveBound(BigInteger n) {
+    BigInteger r = n.sqrt().sqrt().add(TWO);
+    return r.multiply(r);
+  }
+
+  private static final class Small extends PrimalityCertificate {
+    Small(BigInteger n) {
+      super(n);
+    }
+
+    @Override
+    public boolean verify() {
+      return isSmallPrime(n);
+    }
+
+    @Override
+    void write(StringBuilder sb, int depth) {
+      indent(sb, depth);
+      sb.append(n).append(": below 2^64, Miller-Rabin to bases 2 to 37\n");
+    }
+  }
+
+  private static final class NMinusOne extends PrimalityCertificate {
+    final PrimalityCertificate[] factors;
+    final int[] exponents;
+    final BigInteger[] witnesses;
+
+    NMinusOne(BigInteger n, PrimalityCertificate[] factors, int[] exponents,
+        BigInteger[] witnesses) {
+      super(n);
+      this.factors = factors;
+      this.exponents = exponents;
+      this.witnesses = witnesses;
+    }
+
+    /**
+     * If every prime q dividing F has a witness, every prime factor p of n is 1 (mod F). For
+     * F >= sqrt(n) that already forces n to be prime. For n^(1/3) <= F < sqrt(n), n has at most
+     * two prime factors, and writing n = c2 * F^2 + c1 * F + 1, it is composite exactly when
+     * c1^2 - 4 * c2 is a perfect square.
+     */
+    @Override
+    public boolean verify() {
+      if (n.compareTo(THREE) < 0 || !n.testBit(0))
+        return false;
+      BigInteger nM = n.subtract(BigInteger.ONE);
+      BigInteger f = BigInteger.ONE;
+      for (int i = 0; i < factors.length; i++) {
+        BigInteger q = factors[i].n;
+        f = f.multiply(q.pow(exponents[i]));
+        if (!factors[i].verify())
+          return false;
+        BigInteger a = witnesses[i];
+        if (!a.modPow(nM, n).equals(BigInteger.ONE))
+          return false;
+        if (!a.modPow(nM.divide(q), n).subtract(BigInteger.ONE).gcd(n).equals(BigInteger.ONE))
+          return false;
+      }
+      if (nM.mod(f).signum() != 0)
+        return false;
+      if (f.multiply(f).compareTo(n) >= 0)
+        return true;
+      if (f.pow(3).compareTo(n) < 0)
+        return false;
+      BigInteger[] c = nM.divide(f).divideAndRemainder(f);
+      BigInteger discriminant = c[1].multiply(c[1]).subtract(c[0].shiftLeft(2));
+      if (discriminant.signum() < 0)
+        return true;
+      BigInteger root = discriminant.sqrt();
+      return !root.multiply(root).equals(discriminant);
+    }
+
+    @Override
+    void write(StringBuilder sb, int depth) {
+      indent(sb, depth);
+      sb.append(n).append(": n - 1 divisible by ");
+      for (int i = 0; i < factors.length; i++) {
+        if (i > 0)
+          sb.append(" * ");
+        sb.append(factors[i].n);
+        if (exponents[i] > 1)
+          sb.append('^').append(exponents[i]);
+      }
+      sb.append(", witnesses");
+      for (BigInteger a : witnesses)
+        sb.append(' ').append(a);
+      sb.append('\n');
+      for (PrimalityCertificate factor : factors) {
+        if (!(factor instanceof Small))
+          factor.write(sb, depth + 1);
+      }
+    }
+  }
+
+  private static final class EllipticCurve extends PrimalityCertificate {
+    final BigInteger a, b, m;
+    final Point point;
+    final PrimalityCertificate q;
+
+    EllipticCurve(BigInteger n, BigInteger a, BigInteger b, Point point, BigInteger m,
+        PrimalityCertificate q) {
+      super(n);
+      this.a = a;
+      this.b = b;
+      this.point = point;
+      this.m = m;
+      this.q = q;
+    }
+
+    /**
+     * For every prime p dividing n, the reduction of Q = (m / q) * P modulo p is a point of order
+     * q, so the curve has at least q > (p^(1/4) + 1)^2 points modulo p. By Hasse's bound this is
+     * impossible if p <= sqrt(n), hence n is prime.
+     */
+    @Override
+    public boolean verify() {
+      if (!n.gcd(BigInteger.valueOf(6)).equals(BigInteger.ONE) || n.compareTo(THREE) < 0)
+        return false;
+      BigInteger discriminant = a.pow(3).shiftLeft(2).add(b.pow(2).multiply(BigInteger.valueOf(27)));
+      if (!discriminant.gcd(n).equals(BigInteger.ONE))
+        return false;
+      if (point == Point.INFINITY || !point.onCurve(a, b, n))
+        return false;
+      if (m.mod(q.n).signum() != 0 || q.n.compareTo(ellipticCurveBound(n)) < 0)
+        return false;
+      if (!q.verify())
+        return false;
+      Point p = new Point(point.x.mod(n), point.y.mod(n));
+      Point kp = p.multiply(m.divide(q.n), a, n);
+      if (kp == null || kp == Point.INFINITY)
+        return false;
+      return kp.multiply(q.n, a, n) == Point.INFINITY;
+    }
+
+    @Override
+    void write(StringBuilder sb, int depth) {
+      indent(sb, depth);
+      sb.append(n).append(": curve y^2 = x^3 + ").append(a).append("x + ").append(b)
+          .append(", point (").append(point.x).append(", ").append(point.y)
+          .append("), order ").append(m).append(" = ").append(m.divide(q.n)).append(" * q\n");
+      q.write(sb, depth + 1);
+    }
+  }
+
+  /**
+   * A point in affine coordinates on a curve y^2 = x^3 + ax + b modulo n. Arithmetic uses the
+   * usual chord and tangent formulas, and gives up (returning null) whenever a denominator is a
+   * zero divisor other than 0 itself, which can only happen when n is composite. As long as it
+   * does not give up, each result agrees with the true group operation modulo every prime
+   * factor of n, which is what makes the elliptic curve certificates sound.
+   */
+  static final class Point {
+    static final Point INFINITY = new Point(null, null);
+    final BigInteger x, y;
+
+    Point(BigInteger x, BigInteger y) {
+      this.x = x;
+      this.y = y;
+    }
+
+    boolean onCurve(BigInteger a, BigInteger b, BigInteger n) {
+      if (this == INFINITY)
+        return false;
+      BigInteger rhs = x.pow(3).add(a.multiply(x)).add(b);
+      return y.multiply(y).subtract(rhs).mod(n).signum() == 0;
+    }
+
+    /**
+     * Computes this + other.
+     * @return The sum, or null if a non-invertible denominator showed that n is composite
+     */
+    Point add(Point other, BigInteger a, BigInteger n) {
+      if (this == INFINITY)
+        return other;
+      if (other == INFINITY)
+        return this;
+      BigInteger numerator, denominator;
+      if (x.equals(other.x)) {
+        if (y.add(other.y).mod(n).signum() == 0)
+          return INFINITY;
+        if (!y.equals(other.y))
+          return null;
+        numerator = x.multiply(x).multiply(THREE).add(a);
+        denominator = y.shiftLeft(1);
+      } else {
+        numerator = other.y.subtract(y);
+        denominator = other.x.subtract(x);
+      }
+      denominator = denominator.mod(n);
+      if (!denominator.gcd(n).equals(BigInteger.ONE))
+        return null;
+      BigInteger lambda = numerator.multiply(denominator.modInverse(n)).mod(n);
+      BigInteger x3 = lambda.multiply(lambda).subtract(x).subtract(other.x).mod(n);
+      return new Point(x3, lambda.multiply(x.subtract(x3)).subtract(y).mod(n));
+    }
+
+    /**
+     * Computes k * this by doubling and adding.
+     * @return The multiple, or null if a non-invertible denominator showed that n is composite
+     */
+    Point multiply(BigInteger k, BigInteger a, BigInteger n) {
+      Point result = INFINITY;
+      for (int i = k.bitLength() - 1; i >= 0 && result != null; i--) {
+        result = result.add(result, a, n);
+        if (result != null && k.testBit(i))
+          result = result.add(this, a, n);
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,625 @@
+package calculator;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+final class PrimalityProver {
+
+  /**
+   * Produces primality certificates for probable primes. Each step first tries to factor n - 1
+   * far enough for Pocklington's theorem or the Brillhart-Lehmer-Selfridge theorem, reusing
+   * Pollard's rho method. When n - 1 does not factor, it falls back to Atkin-Morain elliptic
+   * curve primality proving: for each discriminant D with (D/n) = 1 and 4n = u^2 + |D|v^2, the
+   * curves with complex multiplication by Q(sqrt(D)) have n + 1 +- u points, and as soon as one
+   * of those orders is a small cofactor times a probable prime q, a curve and point are built
+   * and the proof moves on to q. Every step must roughly halve the number of digits or better
+   * for N - 1, or shave off a few digits for elliptic curves, so the search recurses with
+   * backtracking until everything is below 2^64. Candidate orders for several discriminants are
+   * tested at once on a shared fork/join pool, and proofs can be run in the background.
+   */
+
+  private static final BigInteger SMALL_LIMIT = BigInteger.ONE.shiftLeft(64);
+  // Small factors are stripped from n - 1 and from curve orders with a gcd against this product
+  private static final int SMALL_PRIME_LIMIT = 1 << 16;
+  private static final BigInteger SMALL_PRIMORIAL = primorial(SMALL_PRIME_LIMIT);
+  // Rho effort spent on each composite piece of n - 1
+  private static final long RHO_ITERATIONS = 1 << 13;
+  private static final int WITNESS_ATTEMPTS = 64;
+  private static final int CURVE_ATTEMPTS = 48;
+  private static final int THREADS = Runtime.getRuntime().availableProcessors();
+  // Number of discriminants whose orders are tested in parallel before choosing among them
+  private static final int BATCH_SIZE = 4 * THREADS;
+  private static final BigInteger J_1728 = BigInteger.valueOf(1728);
+  private static final BigInteger TWO = BigInteger.valueOf(2);
+  private static final BigInteger THREE = BigInteger.valueOf(3);
+  private static final ForkJoinPool POOL = new ForkJoinPool(THREADS);
+
+  private final Predicate<BigInteger> probablePrime;
+
+  /**
+   * @param probablePrime The probable prime test used on candidate primes, which only needs to
+   * be reliable in practice since every candidate ends up with a certificate of its own
+   */
+  PrimalityProver(Predicate<BigInteger> probablePrime) {
+    this.probablePrime = probablePrime;
+  }
+
+  /**
+   * Starts proving n in the background. Cancelling the returned future stops the search.
+   * @param n A probable prime
+   * @return A future completed with a verified certificate, or with null if n could not be
+   * proven prime
+   */
+  CompletableFuture<PrimalityCertificate> proveAsync(BigInteger n) {
+    AtomicBoolean cancelled = new AtomicBoolean();
+    CompletableFuture<PrimalityCertificate> future =
+        CompletableFuture.supplyAsync(() -> new Search(cancelled).certify(n), POOL);
+    future.whenComplete((certificate, e) -> {
+      if (e instanceof CancellationException)
+        cancelled.set(true);
+    });
+    return future;
+  }
+
+  /**
+   * Proves n prime in the calling thread.
+   * @param n A probable prime
+   * @return A verified certificate, or null if n could not be proven prime
+   */
+  PrimalityCertificate prove(BigInteger n) {
+    return POOL.invoke(ForkJoinTask.adapt(() -> new Search(new AtomicBoolean()).certify(n)));
+  }
+
+  /**
+   * The state of one proof: numbers that already failed are not retried, and the flag is
+   * checked between steps so a cancelled proof stops quickly.
+   */
+  private final class Search {
+    final AtomicBoolean cancelled;
+    final Set<BigInteger> failed = Collections.synchronizedSet(new HashSet<BigInteger>());
+
+    Search(AtomicBoolean cancelled) {
+      this.cancelled = cancelled;
+    }
+
+    PrimalityCertificate certify(BigInteger n) {
+      PrimalityCertificate certificate = prove(n);
+      return (certificate != null && certificate.verify()) ? certificate : null;
+    }
+
+    PrimalityCertificate prove(BigInteger n) {
+      if (n.compareTo(SMALL_LIMIT) < 0)
+        return PrimalityCertificate.small(n);
+      if (cancelled.get() || failed.contains(n))
+        return null;
+      PrimalityCertificate certificate = nMinusOne(n);
+      if (certificate == null)
+        certificate = ellipticCurve(n);
+      if (certificate == null)
+        failed.add(n);
+      return certificate;
+    }
+
+    /**
+     * Tries to prove n with the factored part F of n - 1. Prime factors are taken smallest first
+     * until F^3 >= n, skipping any that cannot be proven themselves.
+     */
+    PrimalityCertificate nMinusOne(BigInteger n) {
+      BigInteger nM = n.subtract(BigInteger.ONE);
+      TreeMap<BigInteger, Integer> primes = partialFactor(nM);
+      List<PrimalityCertificate> factors = new ArrayList<PrimalityCertificate>();
+      List<Integer> exponents = new ArrayList<Integer>();
+      List<BigInteger> witnesses = new ArrayList<BigInteger>();
+      BigInteger f = BigInteger.ONE;
+      for (Map.Entry<BigInteger, Integer> entry : primes.entrySet()) {
+        if (f.pow(3).compareTo(n) >= 0 || cancelled.get())
+          break;
+        BigInteger q = entry.getKey();
+        BigInteger witness = pocklingtonWitness(n, q);
+        if (witness == null)
+          return null;
+        if (witness.signum() == 0)
+          continue;
+        PrimalityCertificate certificate = prove(q);
+        if (certificate == null)
+          continue;
+        factors.add(certificate);
+        exponents.add(entry.getValue());
+        witnesses.add(witness);
+        f = f.multiply(q.pow(entry.getValue()));
+      }
+      if (f.pow(3).compareTo(n) < 0)
+        return null;
+      PrimalityCertificate certificate =
+          PrimalityCertificate.nMinusOne(n, factors, exponents, witnesses);
+      return certificate.verify() ? certificate : null;
+    }
+
+    /**
+     * Factors m as far as is cheap: small primes by a gcd with their product, then rho on the
+     * composite pieces that remain.
+     * @return The probable prime factors found, with their exponents
+     */
+    TreeMap<BigInteger, Integer> partialFactor(BigInteger m) {
+      TreeMap<BigInteger, Integer> primes = new TreeMap<BigInteger, Integer>();
+      BigInteger smooth = smoothPart(m);
+      m = m.divide(smooth);
+      for (int p = 2; !smooth.equals(BigInteger.ONE); p++) {
+        BigInteger bp = BigInteger.valueOf(p);
+        while (smooth.mod(bp).signum() == 0) {
+          smooth = smooth.divide(bp);
+          primes.merge(bp, 1, Integer::sum);
+        }
+      }
+      List<BigInteger> pieces = new ArrayList<BigInteger>();
+      pieces.add(m);
+      while (!pieces.isEmpty() && !cancelled.get()) {
+        BigInteger piece = pieces.remove(pieces.size() - 1);
+        if (piece.equals(BigInteger.ONE))
+          continue;
+        if (probablePrime.test(piece)) {
+          primes.merge(piece, 1, Integer::sum);
+          continue;
+        }
+        BigInteger d = PollardRho.findFactor(piece, RHO_ITERATIONS);
+        if (d != null) {
+          pieces.add(d);
+          pieces.add(piece.divide(d));
+        }
+      }
+      return primes;
+    }
+
+    /**
+     * Searches for a base a with a^(n-1) = 1 (mod n) and gcd(a^((n-1)/q) - 1, n) = 1.
+     * @return The base, 0 if none was found, or null if one of the checks showed n is composite
+     */
+    BigInteger pocklingtonWitness(BigInteger n, BigInteger q) {
+      BigInteger nM = n.subtract(BigInteger.ONE);
+      BigInteger exponent = nM.divide(q);
+      for (int a = 2; a < WITNESS_ATTEMPTS + 2; a++) {
+        BigInteger base = BigInteger.valueOf(a);
+        BigInteger partial = base.modPow(exponent, n);
+        if (!partial.modPow(q, n).equals(BigInteger.ONE))
+          return null;
+        BigInteger g = partial.subtract(BigInteger.ONE).gcd(n);
+        if (g.equals(BigInteger.ONE))
+          return base;
+        if (!g.equals(n))
+          return null;
+      }
+      return BigInteger.ZERO;
+    }
+
+    /**
+     * Tries the discriminants in batches, testing their candidate orders in parallel. Within a
+     * batch the candidates with the smallest q are tried first, and a candidate is abandoned if
+     * no curve can be built for it or q itself cannot be proven.
+     */
+    PrimalityCertificate ellipticCurve(BigInteger n) {
+      BigInteger bound = PrimalityCertificate.ellipticCurveBound(n);
+      List<HilbertClassPolynomial> discriminants = HilbertClassPolynomial.discriminants();
+      for (int start = 0; start < discriminants.size(); start += BATCH_SIZE) {
+        if (cancelled.get())
+          return null;
+        List<Callable<List<Candidate>>> tasks = new ArrayList<Callable<List<Candidate>>>();
+        for (HilbertClassPolynomial h :
+            discriminants.subList(start, Math.min(start + BATCH_SIZE, discriminants.size())))
+          tasks.add(() -> candidates(n, h, bound));
+        List<Candidate> candidates = new ArrayList<Candidate>();
+        for (ForkJoinTask<List<Candidate>> task : ForkJoinTask.invokeAll(adapt(tasks))) {
+          List<Candidate> found = task.join();
+          if (found == null)
+            return null;
+          candidates.addAll(found);
+        }
+        candidates.sort(Comparator.comparing((Candidate c) -> c.q));
+        for (Candidate candidate : candidates) {
+          if (cancelled.get())
+            return null;
+          Curve curve = buildCurve(n, candidate);
+          if (curve == null)
+            continue;
+          PrimalityCertificate certificate = prove(candidate.q);
+          if (certificate != null)
+            return PrimalityCertificate.ellipticCurve(n, curve.a, curve.b, curve.point,
+                candidate.m, certificate);
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Finds the orders n + 1 - t of the curves with complex multiplication by D, and keeps those
+     * that are a small cofactor times a probable prime q > bound.
+     * @return The candidates, or null if n turned out to be composite
+     */
+    List<Candidate> candidates(BigInteger n, HilbertClassPolynomial h, BigInteger bound) {
+      List<Candidate> candidates = new ArrayList<Candidate>();
+      if (cancelled.get())
+        return candidates;
+      BigInteger d = BigInteger.valueOf(h.d);
+      if (jacobi(d.mod(n), n) != 1)
+        return candidates;
+      BigInteger[] uv = cornacchia(n, d);
+      if (uv == null)
+        return candidates;
+      BigInteger u = uv[0], v = uv[1];
+      List<BigInteger> traces = new ArrayList<BigInteger>();
+      traces.add(u);
+      if (h.d == -4)
+        traces.add(v.shiftLeft(1));
+      if (h.d == -3) {
+        traces.add(u.add(v.multiply(THREE)).shiftRight(1));
+        traces.add(u.subtract(v.multiply(THREE)).shiftRight(1).abs());
+      }
+      for (BigInteger t : traces) {
+        for (BigInteger m : new BigInteger[] {n.add(BigInteger.ONE).subtract(t),
+            n.add(BigInteger.ONE).add(t)}) {
+          BigInteger q = m.divide(smoothPart(m));
+          if (q.compareTo(bound) > 0 && q.compareTo(n) < 0 && probablePrime.test(q))
+            candidates.add(new Candidate(h, m, q));
+        }
+      }
+      return candidates;
+    }
+  }
+
+  /**
+   * A curve order m = k * q with q a probable prime, for the discriminant in h.
+   */
+  private static final class Candidate {
+    final HilbertClassPolynomial h;
+    final BigInteger m, q;
+
+    Candidate(HilbertClassPolynomial h, BigInteger m, BigInteger q) {
+      this.h = h;
+      this.m = m;
+      this.q = q;
+    }
+  }
+
+  /**
+   * The curve y^2 = x^3 + ax + b together with a point on it.
+   */
+  private static final class Curve {
+    final BigInteger a, b;
+    final PrimalityCertificate.Point point;
+
+    Curve(BigInteger a, BigInteger b, PrimalityCertificate.Point point) {
+      this.a = a;
+      this.b = b;
+      this.point = point;
+    }
+  }
+
+  private static <T> List<ForkJoinTask<T>> adapt(List<Callable<T>> tasks) {
+    List<ForkJoinTask<T>> adapted = new ArrayList<ForkJoinTask<T>>();
+    for (Callable<T> task : tasks)
+      adapted.add(ForkJoinTask.adapt(task));
+    return adapted;
+  }
+
+  /**
+   * Builds a curve with exactly candidate.m points and a point P with (m/q)P != O. The
+   * j-invariant is a root of H_D modulo n, and of the twists with that j-invariant a random one
+   * is tried until a random point is killed by m.
+   * @return The curve and point, or null if none was found
+   */
+  private static Curve buildCurve(BigInteger n, Candidate candidate) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    BigInteger j;
+    if (candidate.h.d == -3)
+      j = BigInteger.ZERO;
+    else if (candidate.h.d == -4)
+      j = J_1728;
+    else
+      j = polynomialRoot(candidate.h.coefficients(), n);
+    if (j == null)
+      return null;
+    BigInteger denominator = J_1728.subtract(j).mod(n);
+    if (j.signum() != 0 && !denominator.gcd(n).equals(BigInteger.ONE))
+      return null;
+    // k = j / (1728 - j) gives y^2 = x^3 + 3k c^2 x + 2k c^3 for each twisting parameter c
+    BigInteger k = j.signum() == 0 ? BigInteger.ZERO : j.multiply(denominator.modInverse(n)).mod(n);
+    BigInteger cofactor = candidate.m.divide(candidate.q);
+    for (int attempt = 0; attempt < CURVE_ATTEMPTS; attempt++) {
+      BigInteger c = randomBelow(n, random);
+      BigInteger a, b;
+      if (candidate.h.d == -3) {
+        a = BigInteger.ZERO;
+        b = c;
+      } else if (candidate.h.d == -4) {
+        a = c;
+        b = BigInteger.ZERO;
+      } else {
+        a = k.multiply(THREE).multiply(c.pow(2)).mod(n);
+        b = k.multiply(TWO).multiply(c.pow(3)).mod(n);
+      }
+      BigInteger x = randomBelow(n, random);
+      BigInteger rhs = x.pow(3).add(a.multiply(x)).add(b).mod(n);
+      if (jacobi(rhs, n) != 1)
+        continue;
+      BigInteger y = sqrtMod(rhs, n);
+      if (y == null)
+        return null;
+      PrimalityCertificate.Point p = new PrimalityCertificate.Point(x, y);
+      PrimalityCertificate.Point kp = p.multiply(cofactor, a, n);
+      if (kp == null)
+        return null;
+      if (kp == PrimalityCertificate.Point.INFINITY)
+        continue;
+      if (kp.multiply(candidate.q, a, n) == PrimalityCertificate.Point.INFINITY) {
+        return new Curve(a, b, p);
+      }
+    }
+    return null;
+  }
+
+  private static BigInteger randomBelow(BigInteger n, ThreadLocalRandom random) {
+    return new BigInteger(n.bitLength() + 8, random).mod(n.subtract(TWO)).add(BigInteger.ONE);
+  }
+
+  /**
+   * The product of all prime powers below SMALL_PRIME_LIMIT dividing m.
+   */
+  private static BigInteger smoothPart(BigInteger m) {
+    BigInteger smooth = BigInteger.ONE;
+    BigInteger g = m.gcd(SMALL_PRIMORIAL);
+    while (!g.equals(BigInteger.ONE)) {
+      smooth = smooth.multiply(g);
+      m = m.divide(g);
+      g = m.gcd(g);
+    }
+    return smooth;
+  }
+
+  private static BigInteger primorial(int limit) {
+    BigInteger product = BigInteger.ONE;
+    for (int p = 2; p < limit; p++) {
+      if (BigInteger.valueOf(p).isProbablePrime(20))
+        product = product.multiply(BigInteger.valueOf(p));
+    }
+    return product;
+  }
+
+  /**
+   * Solves 4n = u^2 + |d| v^2 with Cornacchia's algorithm, modified for the factor of 4: reduce
+   * 2n against a square root of d with the Euclidean algorithm until the remainder drops below
+   * 2 sqrt(n).
+   * @param n A probable prime
+   * @param d A negative discriminant with (d/n) = 1
+   * @return {u, v}, or null if there is no solution
+   */
+  private static BigInteger[] cornacchia(BigInteger n, BigInteger d) {
+    BigInteger x = sqrtMod(d.mod(n), n);
+    if (x == null)
+      return null;
+    if (x.testBit(0) != d.testBit(0))
+      x = n.subtract(x);
+    BigInteger a = n.shiftLeft(1), b = x;
+    BigInteger limit = n.shiftLeft(2).sqrt();
+    while (b.compareTo(limit) > 0) {
+      BigInteger r = a.mod(b);
+      a = b;
+      b = r;
+    }
+    BigInteger[] qr = n.shiftLeft(2).subtract(b.multiply(b)).divideAndRemainder(d.negate());
+    if (qr[1].signum() != 0)
+      return null;
+    BigInteger v = qr[0].sqrt();
+    if (!v.multiply(v).equals(qr[0]))
+      return null;
+    return new BigInteger[] {b, v};
+  }
+
+  /**
+   * Computes a square root modulo a probable prime with the Tonelli-Shanks algorithm.
+   * @param a A quadratic residue modulo n
+   * @param n A probable prime
+   * @return x with x^2 = a (mod n), or null if the algorithm failed, in which case n is composite
+   */
+  private static BigInteger sqrtMod(BigInteger a, BigInteger n) {
+    a = a.mod(n);
+    if (a.signum() == 0)
+      return a;
+    BigInteger nM = n.subtract(BigInteger.ONE);
+    int s = nM.getLowestSetBit();
+    BigInteger q = nM.shiftRight(s);
+    BigInteger z = TWO;
+    while (jacobi(z, n) != -1) {
+      z = z.add(BigInteger.ONE);
+      if (z.bitLength() > 20)
+        return null;
+    }
+    BigInteger c = z.modPow(q, n);
+    BigInteger x = a.modPow(q.add(BigInteger.ONE).shiftRight(1), n);
+    BigInteger t = a.modPow(q, n);
+    int m = s;
+    while (!t.equals(BigInteger.ONE)) {
+      int i = 0;
+      BigInteger t2 = t;
+      while (!t2.equals(BigInteger.ONE)) {
+        t2 = t2.multiply(t2).mod(n);
+        if (++i == m)
+          return null;
+      }
+      BigInteger b = c.modPow(BigInteger.ONE.shiftLeft(m - i - 1), n);
+      x = x.multiply(b).mod(n);
+      c = b.multiply(b).mod(n);
+      t = t.multiply(c).mod(n);
+      m = i;
+    }
+    return x.multiply(x).mod(n).equals(a) ? x : null;
+  }
+
+  /**
+   * The Jacobi symbol (a/n), by the binary algorithm using quadratic reciprocity.
+   * @param a Any integer
+   * @param n An odd positive integer
+   * @return -1, 0 or 1
+   */
+  private static int jacobi(BigInteger a, BigInteger n) {
+    a = a.mod(n);
+    int result = 1;
+    while (a.signum() != 0) {
+      int zeros = a.getLowestSetBit();
+      a = a.shiftRight(zeros);
+      int nMod8 = n.intValue() & 7;
+      if ((zeros & 1) == 1 && (nMod8 == 3 || nMod8 == 5))
+        result = -result;
+      if ((a.intValue() & 3) == 3 && (nMod8 & 3) == 3)
+        result = -result;
+      BigInteger r = n.mod(a);
+      n = a;
+      a = r;
+    }
+    return n.equals(BigInteger.ONE) ? result : 0;
+  }
+
+  /**
+   * Finds one root of a polynomial that splits into distinct linear factors modulo n, with the
+   * Cantor-Zassenhaus method: gcd(x^n - x, f) keeps the linear factors, and a random split
+   * gcd((x + r)^((n-1)/2) - 1, g) separates them until one is left.
+   * @param f The coefficients, constant term first, of a monic polynomial
+   * @param n A probable prime
+   * @return A root of f modulo n, or null if none was found
+   */
+  private static BigInteger polynomialRoot(BigInteger[] f, BigInteger n) {
+    BigInteger[] g = new BigInteger[f.length];
+    for (int i = 0; i < f.length; i++)
+      g[i] = f[i].mod(n);
+    if (g.length == 2)
+      return g[0].negate().mod(n);
+    BigInteger[] x = {BigInteger.ZERO, BigInteger.ONE};
+    BigInteger[] xn = polyPowMod(x, n, g, n);
+    if (xn == null)
+      return null;
+    g = polyGcd(g, polySubtract(xn, x, n), n);
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    BigInteger half = n.shiftRight(1);
+    for (int attempt = 0; g != null && g.length > 2 && attempt < CURVE_ATTEMPTS; attempt++) {
+      BigInteger[] shifted = {randomBelow(n, random), BigInteger.ONE};
+      BigInteger[] power = polyPowMod(shifted, half, g, n);
+      if (power == null)
+        return null;
+      BigInteger[] h = polyGcd(g, polySubtract(power, new BigInteger[] {BigInteger.ONE}, n), n);
+      if (h == null)
+        return null;
+      if (h.length > 1 && h.length < g.length)
+        g = h;
+    }
+    if (g == null || g.length != 2)
+      return null;
+    return g[0].negate().mod(n);
+  }
+
+  // Polynomials are coefficient arrays, constant term first, with no leading zeros
+
+  private static BigInteger[] trim(BigInteger[] a) {
+    int length = a.length;
+    while (length > 0 && a[length - 1].signum() == 0)
+      length--;
+    BigInteger[] trimmed = new BigInteger[length];
+    System.arraycopy(a, 0, trimmed, 0, length);
+    return trimmed;
+  }
+
+  private static BigInteger[] polySubtract(BigInteger[] a, BigInteger[] b, BigInteger n) {
+    BigInteger[] result = new BigInteger[Math.max(a.length, b.length)];
+    for (int i = 0; i < result.length; i++) {
+      BigInteger x = i < a.length ? a[i] : BigInteger.ZERO;
+      BigInteger y = i < b.length ? b[i] : BigInteger.ZERO;
+      result[i] = x.subtract(y).mod(n);
+    }
+    return trim(result);
+  }
+
+  /**
+   * Reduces a modulo f.
+   * @return The remainder, or null if the leading coefficient of f is not invertible
+   */
+  private static BigInteger[] polyMod(BigInteger[] a, BigInteger[] f, BigInteger n) {
+    BigInteger lead = f[f.length - 1];
+    if (!lead.gcd(n).equals(BigInteger.ONE))
+      return null;
+    BigInteger inverse = lead.modInverse(n);
+    BigInteger[] r = a.clone();
+    for (int i = r.length - 1; i >= f.length - 1; i--) {
+      BigInteger factor = r[i].multiply(inverse).mod(n);
+      if (factor.signum() == 0)
+        continue;
+      int shift = i - (f.length - 1);
+      for (int k = 0; k < f.length; k++)
+        r[shift + k] = r[shift + k].subtract(factor.multiply(f[k])).mod(n);
+    }
+    return trim(r);
+  }
+
+  private static BigInteger[] polyMulMod(BigInteger[] a, BigInteger[] b, BigInteger[] f,
+      BigInteger n) {
+    if (a.length == 0 || b.length == 0)
+      return new BigInteger[0];
+    BigInteger[] product = new BigInteger[a.length + b.length - 1];
+    Arrays.fill(product, BigInteger.ZERO);
+    for (int i = 0; i < a.length; i++) {
+      for (int k = 0; k < b.length; k++)
+        product[i + k] = product[i + k].add(a[i].multiply(b[k]));
+    }
+    for (int i = 0; i < product.length; i++)
+      product[i] = product[i].mod(n);
+    return polyMod(product, f, n);
+  }
+
+  private static BigInteger[] polyPowMod(BigInteger[] a, BigInteger e, BigInteger[] f,
+      BigInteger n) {
+    BigInteger[] result = {BigInteger.ONE};
+    BigInteger[] base = polyMod(a, f, n);
+    for (int i = e.bitLength() - 1; i >= 0 && result != null && base != null; i--) {
+      result = polyMulMod(result, result, f, n);
+      if (result != null && e.testBit(i))
+        result = polyMulMod(result, base, f, n);
+    }
+    return (base == null) ? null : result;
+  }
+
+  /**
+   * The monic greatest common divisor of two polynomials.
+   * @return The gcd, or null if a non-invertible leading coefficient showed n is composite
+   */
+  private static BigInteger[] polyGcd(BigInteger[] a, BigInteger[] b, BigInteger n) {
+    while (b.length > 0) {
+      BigInteger[] r = polyMod(a, b, n);
+      if (r == null)
+        return null;
+      a = b;
+      b = r;
+    }
+    if (a.length == 0)
+      return a;
+    BigInteger lead = a[a.length - 1];
+    if (!lead.gcd(n).equals(BigInteger.ONE))
+      return null;
+    BigInteger inverse = lead.modInverse(n);
+    BigInteger[] monic = new BigInteger[a.length];
+    for (int i = 0; i < a.length; i++)
+      monic[i] = a[i].multiply(inverse).mod(n);
+    return monic;
+  }
+}
@@ -0,0 +1,189 @@
+package calculator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+final class PrimeBitmap {
+
+  /**
+   * A table of primes kept on disk in the mod 30 layout of PrimeSieve, one byte per 30 integers,
+   * so that it only has to be sieved once per machine rather than once per run. The file is
+   * mapped read-only, which makes opening it instant and lets every calculator process on the
+   * host share the same cached pages. When a number beyond the end of the file is asked for,
+   * the missing bytes are sieved and appended while holding an exclusive lock on the file, and
+   * only then is the length in the header raised. The bytes already written never change, so
+   * readers need no lock, and a process that finds the file too short rereads the header under
+   * the lock in case another process has grown it in the meantime.
+   */
+
+  // "TNTCPRM1", then the number of bitmap bytes that follow the header
+  private static final long MAGIC = 0x544e544350524d31L;
+  private static final int HEADER_BYTES = 16;
+  private static final Path FILE =
+      Paths.get(System.getProperty("user.home"), ".tntc", "primes.bin");
+  private static PrimeBitmap shared;
+  private static boolean opened;
+
+  private final FileChannel channel;
+  private volatile MappedByteBuffer map;
+  private volatile long length;
+
+  private PrimeBitmap(Path file) throws IOException {
+    Files.createDirectories(file.getParent());
+    channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE);
+    FileLock lock = channel.lock();
+    try {
+      long stored = readLength();
+      if (stored < 0 || channel.size() < HEADER_BYTES + stored) {
+        // New or damaged file, start over
+        channel.truncate(0);
+        writeLength(0);
+        stored = 0;
+      }
+      remap(stored);
+    } finally {
+      lock.release();
+    }
+  }
+
+  /**
+   * Opens the table in the user's home directory on first use.
+   * @return The shared table, or null if the file cannot be opened, in which case callers
+   * should sieve for themselves
+   */
+  static synchronized PrimeBitmap shared() {
+    if (!opened) {
+      opened = true;
+      try {
+        shared = new PrimeBitmap(FILE);
+      } catch (IOException | SecurityException e) {
+        shared = null;
+      }
+    }
+    return shared;
+  }
+
+  /**
+   * Counts the primes up to n by counting set bits in the table, growing it first if needed.
+   * @param n A number below 30 * Integer.MAX_VALUE
+   * @return pi(n), or -1 if the table could not be grown
+   */
+  long count(long n) {
+    if (n < 7)
+      return n < 2 ? 0 : n < 3 ? 1 : n < 5 ? 2 : 3;
+    if (!ensure(n))
+      return -1;
+    MappedByteBuffer bitmap = map;
+    long lastByte = n / 30;
+    long total = 3;
+    int i = HEADER_BYTES;
+    for (; i + 8 <= HEADER_BYTES + lastByte; i += 8)
+      total += Long.bitCount(bitmap.getLong(i));
+    for (; i < HEADER_BYTES + lastByte; i++)
+      total += Integer.bitCount(bitmap.get(i) & 0xFF);
+    int mask = 0;
+    for (int k = 0; k < 8 && PrimeSieve.RESIDUES[k] <= n % 30; k++)
+      mask |= 1 << k;
+    return total + Integer.bitCount(bitmap.get(i) & mask);
+  }
+
+  /**
+   * Lists the primes up to limit, growing the table first if needed.
+   * @param limit The largest candidate
+   * @return The primes in increasing order, or null if the table could not be grown
+   */
+  int[] primes(int limit) {
+    long count = count(limit);
+    if (count < 0)
+      return null;
+    int[] list = new int[(int) count];
+    int k = 0;
+    for (int p : new int[] {2, 3, 5}) {
+      if (k < list.length)
+        list[k++] = p;
+    }
+    MappedByteBuffer bitmap = map;
+    for (int b = 0; k < list.length; b++) {
+      int bits = bitmap.get(HEADER_BYTES + b) & 0xFF;
+      for (; bits != 0 && k < list.length; bits &= bits - 1)
+        list[k++] = 30 * b + PrimeSieve.RESIDUES[Integer.numberOfTrailingZeros(bits)];
+    }
+    return list;
+  }
+
+  /**
+   * Makes sure the table covers n, sieving and appending whole segments if it does not.
+   * @return false if the file could not be written
+   */
+  private synchronized boolean ensure(long n) {
+    long needed = n / 30 + 1;
+    if (needed <= length)
+      return true;
+    if (needed > Integer.MAX_VALUE - HEADER_BYTES - PrimeSieve.SEGMENT_BYTES)
+      return false;
+    try {
+      FileLock lock = channel.lock();
+      try {
+        grow(needed);
+      } finally {
+        lock.release();
+      }
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Appends bytes until the file holds at least needed of them, unless another process already
+   * has. The caller holds the file lock.
+   */
+  private void grow(long needed) throws IOException {
+    long stored = readLength();
+    if (stored < needed) {
+      long target = (needed + PrimeSieve.SEGMENT_BYTES - 1) / PrimeSieve.SEGMENT_BYTES
+          * PrimeSieve.SEGMENT_BYTES;
+      PrimeSieve sieve = new PrimeSieve(stored, 30 * target - 1);
+      byte[] buffer = new byte[PrimeSieve.SEGMENT_BYTES];
+      for (int written; (written = sieve.nextBytes(buffer)) > 0; stored += written)
+        channel.write(ByteBuffer.wrap(buffer, 0, written), HEADER_BYTES + stored);
+      // The bytes must be on disk before the header admits to them
+      channel.force(false);
+      writeLength(stored);
+    }
+    remap(stored);
+  }
+
+  /**
+   * Reads the bitmap length from the header.
+   * @return The length, or -1 if the file is too short or not a prime table
+   */
+  private long readLength() throws IOException {
+    if (channel.size() < HEADER_BYTES)
+      return -1;
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    channel.read(header, 0);
+    header.flip();
+    return header.getLong() == MAGIC ? header.getLong() : -1;
+  }
+
+  private void writeLength(long stored) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    header.putLong(MAGIC).putLong(stored).flip();
+    channel.write(header, 0);
+    channel.force(false);
+  }
+
+  private void remap(long stored) throws IOException {
+    map = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES + stored);
+    length = stored;
+  }
+}
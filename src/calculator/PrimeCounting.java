@@ -0,0 +1,349 @@
+package calculator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+
+final class PrimeCounting {
+
+  /**
+   * Counts primes with the combinatorial method of Lagarias, Miller and Odlyzko, in O(x^(2/3))
+   * time and O(x^(1/3)) space instead of sieving all the way to x. With y a little above
+   * x^(1/3), pi(x) = phi(x, pi(y)) + pi(y) - 1 - P2(x, y), where phi(x, a) counts the numbers up
+   * to x with no prime factor among the first a primes and P2 counts those up to x with exactly
+   * two prime factors above y. Expanding phi(x, pi(y)) with phi(x, b) = phi(x, b - 1) -
+   * phi(x / p_b, b - 1) until every argument x / n has n > y leaves a sum of mu(n) phi(x / n, b)
+   * over "leaves". The ordinary leaves have b = c, a small constant, and are read off a
+   * precomputed phi(., c) table. The special leaves have x / n < x / y, and are counted by
+   * sieving [1, x / y] a segment at a time while crossing off one prime after another, with a
+   * binary indexed tree over the segment answering how many numbers survive below each leaf.
+   * Leaves with x / n < p_b^2 need no sieve at all, since phi is then given by pi. Segments are
+   * grouped into chunks that run in parallel: each chunk counts relative to its own start, and
+   * the totals of earlier chunks are added afterwards, weighted by the sum of mu over the leaves
+   * that needed them.
+   */
+
+  // Below this the primes are counted directly, from the shared bitmap or failing that a sieve
+  static final long SIEVE_LIMIT = 100000000L;
+  // phi(x, C) is read from a table covering one period of the first C primes
+  private static final int C = 6;
+  private static final int PRIMORIAL = 2 * 3 * 5 * 7 * 11 * 13;
+  private static final int[] PHI_TABLE = new int[PRIMORIAL];
+  // Odd numbers per segment (one bit each) and 64 bit words per segment
+  private static final int SEGMENT_BITS = 1 << 18;
+  private static final int SEGMENT_WORDS = SEGMENT_BITS >> 6;
+  // Numbers coprime to 3 * 5 * 7 * 11 * 13, by odd index, repeating every 15015 bits; the array
+  // holds 64 periods plus a word so that any run of 64 bits can be read at once
+  private static final int PATTERN_PERIOD = PRIMORIAL / 2;
+  private static final long[] PATTERN = new long[PATTERN_PERIOD + 1];
+  private static final int THREADS = Runtime.getRuntime().availableProcessors();
+  private static final int CHUNKS_PER_THREAD = 4;
+  private static final ExecutorService POOL = Executors.newFixedThreadPool(THREADS, r -> {
+    Thread t = new Thread(r, "prime-count-worker");
+    t.setDaemon(true);
+    return t;
+  });
+
+  static {
+    for (int i = 1, count = 0; i < PRIMORIAL; i++) {
+      if (i % 2 != 0 && i % 3 != 0 && i % 5 != 0 && i % 7 != 0 && i % 11 != 0 && i % 13 != 0)
+        count++;
+      PHI_TABLE[i] = count;
+    }
+    for (long g = 0; g < 64L * PATTERN_PERIOD; g++) {
+      long n = 2 * g + 1;
+      if (n % 3 != 0 && n % 5 != 0 && n % 7 != 0 && n % 11 != 0 && n % 13 != 0)
+        PATTERN[(int) (g >>> 6)] |= 1L << (g & 63);
+    }
+    PATTERN[PATTERN_PERIOD] = PATTERN[0];
+  }
+
+  private final long x, z;
+  private final int y, piY;
+  // primes[1..piY] are the primes up to y; pi, lpf and mu are tabulated for 0..y, with the
+  // least prime factor of 1 taken as infinite
+  private final int[] primes, pi, lpf;
+  private final byte[] mu;
+  // Leaves with b below this iterate over all m, above it only over primes
+  private final int sqrtIndex;
+
+  private PrimeCounting(long x) {
+    this.x = x;
+    long cbrt = (long) Math.cbrt((double) x);
+    while (cbrt * cbrt * cbrt > x)
+      cbrt--;
+    while ((cbrt + 1) * (cbrt + 1) * (cbrt + 1) <= x)
+      cbrt++;
+    // Larger y moves work from the sieve to the leaves, which pays off as x grows
+    double alpha = Math.max(1, Math.pow(Math.log(x), 3) / 8000);
+    y = (int) Math.min(alpha * cbrt, Math.sqrt((double) x) - 1);
+    z = x / y;
+    lpf = new int[y + 1];
+    mu = new byte[y + 1];
+    pi = new int[y + 1];
+    Arrays.fill(mu, (byte) 1);
+    lpf[1] = Integer.MAX_VALUE;
+    int count = 0;
+    for (int i = 2; i <= y; i++) {
+      if (lpf[i] == 0) {
+        count++;
+        for (int j = i; j <= y; j += i) {
+          if (lpf[j] == 0)
+            lpf[j] = i;
+          mu[j] = (byte) -mu[j];
+        }
+        for (long j = (long) i * i; j <= y; j += (long) i * i)
+          mu[(int) j] = 0;
+      }
+      pi[i] = count;
+    }
+    piY = count;
+    primes = new int[piY + 1];
+    for (int i = 2, k = 1; i <= y; i++) {
+      if (lpf[i] == i)
+        primes[k++] = i;
+    }
+    int index = C;
+    while (index < piY && (long) primes[index + 1] * primes[index + 1] <= y)
+      index++;
+    sqrtIndex = index;
+  }
+
+  /**
+   * Counts the primes up to x.
+   * @param x Any number
+   * @return pi(x), or -1 if the budget of the thread ran out
+   */
+  static long pi(long x) {
+    if (x < SIEVE_LIMIT) {
+      PrimeBitmap bitmap = PrimeBitmap.shared();
+      long count = bitmap == null ? -1 : bitmap.count(x);
+      return count >= 0 ? count : PrimeSieve.count(x);
+    }
+    return new PrimeCounting(x).count();
+  }
+
+  private long count() {
+    long s2 = specialLeaves();
+    if (s2 == Long.MIN_VALUE)
+      return -1;
+    return ordinaryLeaves() + s2 + piY - 1 - p2();
+  }
+
+  /**
+   * phi(u, C) from the number of whole periods of the first C primes and the table.
+   */
+  private static long phiTiny(long u) {
+    return (u / PRIMORIAL) * 5760 + PHI_TABLE[(int) (u % PRIMORIAL)];
+  }
+
+  /**
+   * The sum of mu(n) phi(x / n, C) over squarefree n <= y with no prime factor up to p_C.
+   */
+  private long ordinaryLeaves() {
+    long sum = 0;
+    for (int n = 1; n <= y; n++) {
+      if (mu[n] != 0 && lpf[n] > primes[C])
+        sum += mu[n] * phiTiny(x / n);
+    }
+    return sum;
+  }
+
+  /**
+   * The number of integers up to x with two prime factors above y, counting each p q with
+   * y < p <= q as pi(x / p) - pi(p) + 1 for every prime p in (y, sqrt(x)]. The values x / p
+   * increase as p decreases, so a single pass of the segmented sieve up to x / y supplies
+   * every pi(x / p).
+   */
+  private long p2() {
+    long sqrt = (long) Math.sqrt((double) x);
+    while (sqrt * sqrt > x)
+      sqrt--;
+    while ((sqrt + 1) * (sqrt + 1) <= x)
+      sqrt++;
+    PrimeSieve sieve = new PrimeSieve(sqrt);
+    long[] large = new long[1024];
+    int count = 0;
+    for (long p = sieve.next(); p != -1; p = sieve.next()) {
+      if (p <= y)
+        continue;
+      if (count == large.length)
+        large = Arrays.copyOf(large, 2 * count);
+      large[count++] = p;
+    }
+    PrimeSieve counter = new PrimeSieve(z);
+    long sum = 0;
+    for (int i = count - 1; i >= 0; i--)
+      sum += counter.countTo(x / large[i]) - (piY + i + 1) + 1;
+    return sum;
+  }
+
+  /**
+   * Sums -mu(m) phi(x / (p_b m), b - 1) over the special leaves, i.e. over the primes p_b with
+   * C < b < pi(y) and the squarefree m <= y with y < p_b m and no prime factor up to p_b.
+   * @return The sum, or Long.MIN_VALUE if the budget of the thread ran out
+   */
+  private long specialLeaves() {
+    long segments = z / (2L * SEGMENT_BITS) + 1;
+    long chunks = (long) THREADS * CHUNKS_PER_THREAD;
+    long perChunk = Math.max(1, (segments + chunks - 1) / chunks);
+    // Numbers below the current chunk that survive the first b - 1 primes
+    long[] prefix = new long[piY + 1];
+    long sum = 0;
+    Budget budget = Budget.current();
+    for (long first = 0; first < segments; first += perChunk * THREADS) {
+      List<Future<Chunk>> wave = new ArrayList<Future<Chunk>>();
+      for (long s = first; s < Math.min(segments, first + perChunk * THREADS); s += perChunk) {
+        Chunk chunk = new Chunk(s, Math.min(segments, s + perChunk));
+        wave.add(POOL.submit(() -> chunk.run()));
+      }
+      try {
+        for (Future<Chunk> future : wave) {
+          Chunk chunk = budget.get(future);
+          sum += chunk.sum;
+          for (int b = C + 1; b < piY; b++) {
+            sum -= prefix[b] * chunk.muSum[b];
+            prefix[b] += chunk.phi[b];
+          }
+        }
+      } catch (InterruptedException e) {
+        for (Future<Chunk> future : wave)
+          future.cancel(true);
+        Thread.currentThread().interrupt();
+        return Long.MIN_VALUE;
+      } catch (TimeoutException e) {
+        for (Future<Chunk> future : wave)
+          future.cancel(true);
+        return Long.MIN_VALUE;
+      } catch (ExecutionException e) {
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * A run of consecutive segments, sieved by one thread.
+   */
+  private final class Chunk {
+    private final long firstSegment, endSegment;
+    // Odd numbers of the current segment that are still uncrossed, and a binary indexed tree
+    // over the number of set bits in each word
+    private final long[] bits = new long[SEGMENT_WORDS];
+    private final int[] tree = new int[SEGMENT_WORDS + 1];
+    // Results: the sum over the leaves counted from the start of the chunk, and for each b the
+    // survivors of the first b - 1 primes in the chunk and the sum of mu over leaves that need
+    // the survivors before the chunk
+    private long sum;
+    private final long[] phi = new long[piY + 1];
+    private final long[] muSum = new long[piY + 1];
+
+    Chunk(long firstSegment, long endSegment) {
+      this.firstSegment = firstSegment;
+      this.endSegment = endSegment;
+    }
+
+    Chunk run() {
+      for (long s = firstSegment; s < endSegment; s++) {
+        if (Thread.currentThread().isInterrupted())
+          break;
+        sieveSegment(2L * SEGMENT_BITS * s);
+      }
+      return this;
+    }
+
+    /**
+     * Processes the leaves with x / n in [low, low + 2 * SEGMENT_BITS), where bit i of the
+     * segment stands for low + 2i + 1.
+     */
+    private void sieveSegment(long low) {
+      long high = low + 2L * SEGMENT_BITS;
+      long g = (low >>> 1) % (64L * PATTERN_PERIOD);
+      for (int w = 0; w < SEGMENT_WORDS; w++, g += 64) {
+        if (g >= 64L * PATTERN_PERIOD)
+          g -= 64L * PATTERN_PERIOD;
+        int j = (int) (g >>> 6), shift = (int) (g & 63);
+        bits[w] = shift == 0 ? PATTERN[j] : PATTERN[j] >>> shift | PATTERN[j + 1] << (64 - shift);
+      }
+      buildTree();
+      for (int b = C + 1; b < piY; b++) {
+        long p = primes[b];
+        long minM = Math.max(x / (p * high), y / p);
+        long maxM = low == 0 ? y : Math.min(x / (p * low), y);
+        if (p >= maxM)
+          break;
+        if (b <= sqrtIndex) {
+          for (long m = maxM; m > minM; m--) {
+            if (mu[(int) m] != 0 && lpf[(int) m] > p)
+              leaf(b, mu[(int) m], x / (p * m), low);
+          }
+        } else {
+          // m must be a prime above p, since any composite would exceed y
+          for (int k = pi[(int) maxM]; k > b && primes[k] > minM; k--)
+            leaf(b, -1, x / (p * primes[k]), low);
+        }
+        phi[b] += prefixCount(SEGMENT_WORDS);
+        cross(p, low);
+      }
+    }
+
+    private void leaf(int b, int sign, long quotient, long low) {
+      long p = primes[b];
+      if (quotient <= y && quotient < p * p) {
+        // Only 1 and the primes from p_b up survive, so phi(quotient, b - 1) is known outright
+        sum -= sign * Math.max(1, pi[(int) quotient] - b + 2);
+        return;
+      }
+      long count = phi[b];
+      if (quotient > low) {
+        int i = (int) ((quotient - low - 1) >>> 1);
+        count += prefixCount(i >>> 6) + Long.bitCount(bits[i >>> 6] & (-1L >>> (63 - (i & 63))));
+      }
+      sum -= sign * count;
+      muSum[b] += sign;
+    }
+
+    /**
+     * Crosses off the odd multiples of p in the segment, p itself included.
+     */
+    private void cross(long p, long low) {
+      long k = low / p + 1;
+      if ((k & 1) == 0)
+        k++;
+      for (long i = (p * k - low - 1) >>> 1; i < SEGMENT_BITS; i += p) {
+        int w = (int) (i >>> 6);
+        long mask = 1L << (i & 63);
+        if ((bits[w] & mask) != 0) {
+          bits[w] &= ~mask;
+          for (int t = w + 1; t <= SEGMENT_WORDS; t += t & -t)
+            tree[t]--;
+        }
+      }
+    }
+
+    private void buildTree() {
+      for (int t = 1; t <= SEGMENT_WORDS; t++)
+        tree[t] = Long.bitCount(bits[t - 1]);
+      for (int t = 1; t <= SEGMENT_WORDS; t++) {
+        int parent = t + (t & -t);
+        if (parent <= SEGMENT_WORDS)
+          tree[parent] += tree[t];
+      }
+    }
+
+    /**
+     * The number of set bits in the first words words of the segment.
+     */
+    private int prefixCount(int words) {
+      int total = 0;
+      for (int t = words; t > 0; t -= t & -t)
+        total += tree[t];
+      return total;
+    }
+  }
+}
@@ -0,0 +1,252 @@
+package calculator;
+
+import java.util.Arrays;
+
+final class PrimeSieve {
+
+  /**
+   * Segmented sieve of Eratosthenes over a mod 30 wheel. Only the 8 residues coprime to 30 can
+   * be prime above 5, so each byte stands for a block of 30 integers and each bit for one of
+   * those residues, and the sieve never touches multiples of 2, 3 or 5. The bytes are sieved a
+   * segment at a time, small enough to stay in the L1/L2 cache, and for each sieving prime p and
+   * each residue class of the multiplier, the next multiple to cross off is remembered between
+   * segments. Since p * (30j + r) always lands on the same bit and moves p bytes when j grows,
+   * crossing off is a strided loop over the segment. Memory is O(sqrt(limit)) for the sieving
+   * primes and their offsets, whatever the limit.
+   */
+
+  static final int[] RESIDUES = {1, 7, 11, 13, 17, 19, 23, 29};
+  // Bit index of each residue mod 30, or -1 for residues that share a factor with 30
+  static final int[] BIT_INDEX = new int[30];
+  // 128 KB of bytes, i.e. 3932160 integers per segment, sized for the L2 cache
+  static final int SEGMENT_BYTES = 1 << 17;
+
+  // The multiples of 7, 11 and 13 repeat every 7 * 11 * 13 bytes, so they are copied in from a
+  // precomputed pattern instead of being crossed off
+  private static final int[] PRESIEVED = {7, 11, 13};
+  private static final int PATTERN_BYTES = 7 * 11 * 13;
+  private static final byte[] PATTERN = new byte[PATTERN_BYTES];
+
+  static {
+    Arrays.fill(BIT_INDEX, -1);
+    for (int i = 0; i < RESIDUES.length; i++)
+      BIT_INDEX[RESIDUES[i]] = i;
+    for (int i = 0; i < PATTERN_BYTES; i++) {
+      for (int k = 0; k < 8; k++) {
+        long v = 30L * i + RESIDUES[k];
+        if (v % 7 != 0 && v % 11 != 0 && v % 13 != 0)
+          PATTERN[i] |= 1 << k;
+      }
+    }
+  }
+
+  private final long limit;
+  // Sieving primes from 7 up to sqrt(limit), and for each, the next byte to cross off in each of
+  // the 8 residue classes of the multiplier along with the bit it clears
+  private final int[] sievingPrimes;
+  private final long[] nextByte;
+  private final byte[] bits;
+  private final byte[] segment = new byte[SEGMENT_BYTES];
+  private long segmentStart;
+  private int segmentLength, position, pending, smallIndex;
+  // State of countTo: bytes before countedBytes hold countedPrimes primes above 5
+  private long countedBytes, countedPrimes;
+
+  /**
+   * Prepares to produce the primes up to limit in increasing order.
+   * @param limit The largest number to sieve
+   */
+  PrimeSieve(long limit) {
+    this(0, limit);
+  }
+
+  /**
+   * Prepares to sieve only the bytes from firstByte on, i.e. the numbers from 30 * firstByte up
+   * to limit. When firstByte is not 0, next() skips 2, 3 and 5.
+   * @param firstByte The first byte of the mod 30 layout to sieve
+   * @param limit The largest number to sieve
+   */
+  PrimeSieve(long firstByte, long limit) {
+    this.limit = limit;
+    segmentStart = firstByte - SEGMENT_BYTES;
+    if (firstByte > 0)
+      smallIndex = 3;
+    sievingPrimes = smallPrimes((int) Math.sqrt((double) limit) + 1);
+    nextByte = new long[sievingPrimes.length * 8];
+    bits = new byte[sievingPrimes.length * 8];
+    for (int i = 0; i < sievingPrimes.length; i++) {
+      long p = sievingPrimes[i];
+      long first = Math.max(p, (30 * firstByte + p - 1) / p);
+      for (int k = 0; k < 8; k++) {
+        // Start at p^2 or the first multiple in the range, whichever is larger, with the
+        // multiplier in residue class k
+        long multiplier = first + Math.floorMod(RESIDUES[k] - first, 30);
+        long v = p * multiplier;
+        nextByte[8 * i + k] = v / 30;
+        bits[8 * i + k] = (byte) (1 << BIT_INDEX[(int) (v % 30)]);
+      }
+    }
+  }
+
+  /**
+   * Returns the next prime, starting from 2.
+   * @return The next prime, or -1 once every prime up to the limit has been returned
+   */
+  long next() {
+    if (smallIndex < 3) {
+      long p = new long[] {2, 3, 5}[smallIndex++];
+      return p <= limit ? p : -1;
+    }
+    while (pending == 0) {
+      if (++position >= segmentLength) {
+        if (!nextSegment())
+          return -1;
+        position = 0;
+      }
+      pending = segment[position] & 0xFF;
+    }
+    int bit = Integer.numberOfTrailingZeros(pending);
+    pending &= pending - 1;
+    long prime = 30 * (segmentStart + position) + RESIDUES[bit];
+    return prime <= limit ? prime : -1;
+  }
+
+  /**
+   * Returns pi(v), advancing through the segments as needed, so a series of calls with
+   * increasing v costs about as much as a single count. Must not be mixed with next(), and
+   * the sieve must start from byte 0.
+   * @param v A number no larger than the limit and no smaller than in the previous call
+   * @return pi(v)
+   */
+  long countTo(long v) {
+    if (v < 7)
+      return v < 2 ? 0 : v < 3 ? 1 : v < 5 ? 2 : 3;
+    long targetByte = v / 30;
+    while (true) {
+      if (countedBytes >= segmentStart + segmentLength && !nextSegment())
+        break;
+      long end = Math.min(targetByte, segmentStart + segmentLength);
+      for (long b = countedBytes; b < end; b++)
+        countedPrimes += Integer.bitCount(segment[(int) (b - segmentStart)] & 0xFF);
+      countedBytes = Math.max(countedBytes, end);
+      if (countedBytes == targetByte && targetByte < segmentStart + segmentLength)
+        break;
+    }
+    int mask = 0;
+    for (int i = 0; i < 8 && RESIDUES[i] <= v % 30; i++)
+      mask |= 1 << i;
+    return 3 + countedPrimes + Integer.bitCount(segment[(int) (targetByte - segmentStart)] & mask);
+  }
+
+  /**
+   * Sieves the next segment into the caller's buffer, for callers that keep the bitmap itself.
+   * @param buffer An array of at least SEGMENT_BYTES bytes
+   * @return The number of bytes written, or 0 once the limit has been reached
+   */
+  int nextBytes(byte[] buffer) {
+    if (!nextSegment())
+      return 0;
+    System.arraycopy(segment, 0, buffer, 0, segmentLength);
+    return segmentLength;
+  }
+
+  /**
+   * Counts the primes up to n by sieving and counting the set bits of every segment.
+   * @param n Any number
+   * @return pi(n)
+   */
+  static long count(long n) {
+    if (n < 7)
+      return n < 2 ? 0 : n < 3 ? 1 : n < 5 ? 2 : 3;
+    PrimeSieve sieve = new PrimeSieve(n);
+    long total = 3;
+    long lastByte = n / 30;
+    while (sieve.nextSegment()) {
+      byte[] segment = sieve.segment;
+      int length = sieve.segmentLength;
+      if (sieve.segmentStart + length > lastByte) {
+        // Keep only the residues up to n in the final byte
+        length = (int) (lastByte - sieve.segmentStart);
+        int mask = 0;
+        for (int i = 0; i < 8 && RESIDUES[i] <= n % 30; i++)
+          mask |= 1 << i;
+        total += Integer.bitCount(segment[length] & mask);
+      }
+      for (int i = 0; i < length; i++)
+        total += Integer.bitCount(segment[i] & 0xFF);
+    }
+    return total;
+  }
+
+  /**
+   * Sieves the next segment of bytes.
+   * @return false if the previous segment already reached the limit
+   */
+  private boolean nextSegment() {
+    long start = segmentStart + SEGMENT_BYTES;
+    long lastByte = limit / 30;
+    if (start > lastByte)
+      return false;
+    segmentStart = start;
+    segmentLength = (int) Math.min(SEGMENT_BYTES, lastByte - start + 1);
+    sieveSegment(segment, start, segmentLength);
+    return true;
+  }
+
+  /**
+   * Sieves bytes [start, start + length) into the buffer, continuing from where the previous
+   * call left each sieving prime.
+   */
+  private void sieveSegment(byte[] buffer, long start, int length) {
+    int offset = (int) (start % PATTERN_BYTES);
+    for (int i = 0; i < length; ) {
+      int chunk = Math.min(length - i, PATTERN_BYTES - offset);
+      System.arraycopy(PATTERN, offset, buffer, i, chunk);
+      i += chunk;
+      offset = 0;
+    }
+    if (start == 0) {
+      buffer[0] &= ~1; // 1 is not prime
+      for (int p : PRESIEVED)
+        buffer[0] |= 1 << BIT_INDEX[p];
+    }
+    long end = start + length;
+    for (int i = PRESIEVED.length; i < sievingPrimes.length; i++) {
+      int p = sievingPrimes[i];
+      for (int k = 8 * i; k < 8 * i + 8; k++) {
+        long b = nextByte[k];
+        if (b >= end)
+          continue;
+        byte mask = (byte) ~bits[k];
+        int j = (int) (b - start);
+        for (; j < length; j += p)
+          buffer[j] &= mask;
+        nextByte[k] = start + j;
+      }
+    }
+  }
+
+  /**
+   * Lists the primes from 7 up to limit with a plain sieve, for use as sieving primes.
+   * @param limit The largest candidate
+   * @return The primes in [7, limit]
+   */
+  private static int[] smallPrimes(int limit) {
+    boolean[] composite = new boolean[limit + 1];
+    int count = 0;
+    for (int i = 2; i <= limit; i++) {
+      if (composite[i])
+        continue;
+      if (i >= 7)
+        count++;
+      for (long j = (long) i * i; j <= limit; j += i)
+        composite[(int) j] = true;
+    }
+    int[] primes = new int[count];
+    for (int i = 7, k = 0; i <= limit; i++) {
+      if (!composite[i])
+        primes[k++] = i;
+    }
+    return primes;
+  }
+}
@@ -0,0 +1,87 @@
+package calculator;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+final class PrimeTable {
+
+  /**
+   * The primes up to a fixed limit, stored in increasing order in an int array. At 4 bytes per
+   * prime this is far smaller than a set of BigIntegers and can be scanned without boxing, while
+   * membership tests and prime counts are binary searches. The primes are decoded from the
+   * shared on-disk bitmap when it is available, and sieved otherwise.
+   */
+
+  private final int limit;
+  private final int[] primes;
+
+  /**
+   * Loads or sieves the primes up to limit.
+   * @param limit The largest number covered by the table
+   */
+  PrimeTable(int limit) {
+    this.limit = limit;
+    PrimeBitmap bitmap = PrimeBitmap.shared();
+    int[] list = bitmap == null ? null : bitmap.primes(limit);
+    if (list == null) {
+      PrimeSieve sieve = new PrimeSieve(limit);
+      list = new int[(int) PrimeSieve.count(limit)];
+      for (int i = 0; i < list.length; i++)
+        list[i] = (int) sieve.next();
+    }
+    primes = list;
+  }
+
+  /**
+   * The largest number covered by the table.
+   */
+  int limit() {
+    return limit;
+  }
+
+  /**
+   * The number of primes in the table.
+   */
+  int size() {
+    return primes.length;
+  }
+
+  /**
+   * Returns the i-th prime, counting 2 as the 0th.
+   * @param i An index below size()
+   * @return The prime
+   */
+  int get(int i) {
+    return primes[i];
+  }
+
+  /**
+   * Determines whether n is one of the primes in the table.
+   * @param n Any number
+   * @return true if n is a prime no larger than the limit
+   */
+  boolean contains(long n) {
+    return n >= 2 && n <= limit && Arrays.binarySearch(primes, (int) n) >= 0;
+  }
+
+  /**
+   * Determines whether n is one of the primes in the table.
+   * @param n Any number
+   * @return true if n is a prime no larger than the limit
+   */
+  boolean contains(BigInteger n) {
+    return n.bitLength() < 32 && contains(n.longValue());
+  }
+
+  /**
+   * Counts the primes up to n.
+   * @param n A number no larger than the limit
+   * @return pi(n)
+   */
+  int pi(long n) {
+    if (n < 2)
+      return 0;
+    int i = Arrays.binarySearch(primes, (int) Math.min(n, limit));
+    return i >= 0 ? i + 1 : -i - 1;
+  }
+}
@@ -0,0 +1,138 @@
+package calculator;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+final class ProductTree {
+
+  /**
+   * Products of many factors, computed as a balanced binary tree instead of a running product.
+   * Multiplying a huge accumulator by one small factor at a time costs time proportional to the
+   * size of the accumulator for every factor, while pairing up subtotals of similar size lets
+   * BigInteger use its Karatsuba and Toom-Cook multiplication and keeps the total close to the
+   * cost of the final multiplication. Small factors are first packed into 63 bit words with
+   * plain long arithmetic, which removes the bottom levels of the tree, and the two halves of
+   * large subtrees are multiplied in parallel on a fork/join pool.
+   */
+
+  // Subtrees with fewer leaves than this are multiplied sequentially
+  private static final int PARALLEL_LEAVES = 512;
+  private static final int THREADS = Runtime.getRuntime().availableProcessors();
+  private static final ForkJoinPool POOL = new ForkJoinPool(THREADS);
+
+  private ProductTree() {
+  }
+
+  /**
+   * Multiplies values[from] through values[to - 1].
+   * @param values Non-negative factors
+   * @param from The first index, inclusive
+   * @param to The last index, exclusive
+   * @return The product, or 1 for an empty range
+   */
+  static BigInteger product(long[] values, int from, int to) {
+    Words words = new Words(to - from);
+    for (int i = from; i < to; i++)
+      words.add(values[i]);
+    return words.product();
+  }
+
+  /**
+   * Multiplies the arithmetic progression from, from + step, ... up to to.
+   * @param from The first term, which must not be negative
+   * @param to The upper bound, inclusive
+   * @param step The positive difference between terms
+   * @return The product, or 1 for an empty progression
+   */
+  static BigInteger rangeProduct(long from, long to, long step) {
+    long count = to < from ? 0 : (to - from) / step + 1;
+    Words words = new Words((int) Math.min(count, Integer.MAX_VALUE - 8));
+    for (long i = 0; i < count; i++)
+      words.add(from + i * step);
+    return words.product();
+  }
+
+  /**
+   * Multiplies a list of factors of any size.
+   * @param values The factors
+   * @return The product, or 1 for an empty list
+   */
+  static BigInteger product(List<BigInteger> values) {
+    return multiply(values.toArray(new BigInteger[0]), 0, values.size());
+  }
+
+  /**
+   * Multiplies values[from] through values[to - 1], splitting large ranges across the pool.
+   */
+  private static BigInteger multiply(BigInteger[] values, int from, int to) {
+    if (to - from < PARALLEL_LEAVES)
+      return multiplySequential(values, from, to);
+    Subtree task = new Subtree(values, from, to);
+    return ForkJoinTask.inForkJoinPool() ? task.invoke() : POOL.invoke(task);
+  }
+
+  private static BigInteger multiplySequential(BigInteger[] values, int from, int to) {
+    if (to - from <= 4) {
+      BigInteger r = BigInteger.ONE;
+      for (int i = from; i < to; i++)
+        r = r.multiply(values[i]);
+      return r;
+    }
+    int mid = (from + to) >>> 1;
+    return multiplySequential(values, from, mid).multiply(multiplySequential(values, mid, to));
+  }
+
+  private static final class Subtree extends RecursiveTask<BigInteger> {
+    private static final long serialVersionUID = 1L;
+    private final BigInteger[] values;
+    private final int from, to;
+
+    Subtree(BigInteger[] values, int from, int to) {
+      this.values = values;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected BigInteger compute() {
+      if (to - from < PARALLEL_LEAVES)
+        return multiplySequential(values, from, to);
+      int mid = (from + to) >>> 1;
+      Subtree left = new Subtree(values, from, mid);
+      left.fork();
+      BigInteger right = new Subtree(values, mid, to).compute();
+      return left.join().multiply(right);
+    }
+  }
+
+  /**
+   * Packs small factors into words of at most 63 bits, starting a new word whenever the next
+   * factor would overflow the current one.
+   */
+  private static final class Words {
+    private final BigInteger[] words;
+    private int count;
+    private long current = 1;
+
+    Words(int capacity) {
+      words = new BigInteger[capacity + 1];
+    }
+
+    void add(long value) {
+      if (Math.multiplyHigh(current, value) != 0 || current * value < 0) {
+        words[count++] = BigInteger.valueOf(current);
+        current = value;
+      } else {
+        current *= value;
+      }
+    }
+
+    BigInteger product() {
+      words[count++] = BigInteger.valueOf(current);
+      return multiply(words, 0, count);
+    }
+  }
+}
@@ -0,0 +1,721 @@
+package calculator;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+
+final class QuadraticSieve {
+
+  /**
+   * Self-initializing quadratic sieve. Looks for many x such that Q(x) = (ax + b)^2 - kN factors
+   * completely over a base of small primes, then combines them with linear algebra over GF(2)
+   * into a congruence of squares X^2 = Y^2 (mod N), which splits N with probability 1/2.
+   * Sieving is done over L1 sized byte blocks with rounded logarithms of the primes, and each
+   * choice of a yields 2^(s - 1) polynomials whose roots are updated cheaply with a Gray code.
+   * Relations with one prime outside the factor base are kept and paired up. Unlike the
+   * elliptic curve method, the running time depends only on the size of N, so this is the
+   * method of choice for balanced semiprimes of 50 digits and up.
+   */
+
+  private static final int BLOCK_SIZE = 32768;
+  // Each row is {digits, factor base size, sieve blocks on each side of 0}
+  private static final int[][] PARAMETERS = {
+      {30, 200, 1},
+      {40, 400, 1},
+      {45, 800, 1},
+      {50, 1400, 1},
+      {55, 2000, 1},
+      {60, 3000, 2},
+      {65, 4500, 3},
+      {70, 6500, 3},
+      {75, 9000, 4},
+      {80, 12000, 5},
+      {85, 16000, 6},
+      {90, 22000, 8}};
+  // Primes below this are not sieved, only trial divided, and the threshold is lowered instead
+  private static final int SMALL_PRIME_LIMIT = 30;
+  private static final int SMALL_PRIME_CORRECTION = 12;
+  // Partial relations may have one leftover prime up to this multiple of the largest base prime
+  private static final int LARGE_PRIME_MULTIPLIER = 256;
+  private static final int EXTRA_RELATIONS = 32;
+  private static final int MAX_ROUNDS = 4;
+  // Squarefree multipliers considered by the Knuth-Schroeppel function
+  private static final int[] MULTIPLIERS = {
+      1, 2, 3, 5, 6, 7, 10, 11, 13, 14, 15, 17, 19, 21, 22, 23, 26, 29, 30, 31, 33, 34, 35,
+      37, 38, 39, 41, 42, 43, 46, 47, 51, 53, 55, 57, 58, 59, 61, 62, 65, 66, 67, 69, 70, 71, 73};
+  private static final int THREADS = Runtime.getRuntime().availableProcessors();
+  private static final ExecutorService POOL = Executors.newFixedThreadPool(THREADS, r -> {
+    Thread t = new Thread(r, "siqs-worker");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private final BigInteger n;
+  // The budget of the calling thread, which the workers check between sieve blocks
+  private final Budget budget = Budget.current();
+  private BigInteger kn;
+  // Factor base: primes[i], sqrt(kN) mod primes[i] and the rounded base 2 logarithm
+  private int[] primes;
+  private int[] sqrtKN;
+  private byte[] logp;
+  private int halfWidth;
+  private int threshold;
+  private long largePrimeBound;
+  private BigInteger targetA;
+
+  // Relations collected so far, guarded by this
+  private final List<Relation> relations = new ArrayList<Relation>();
+  private final Map<Long, Relation> partials = new HashMap<Long, Relation>();
+  private final Set<BigInteger> seenY = new HashSet<BigInteger>();
+  private final Set<BigInteger> usedA = new HashSet<BigInteger>();
+  private int target;
+  private volatile boolean enough;
+
+  private QuadraticSieve(BigInteger n) {
+    this.n = n;
+  }
+
+  /**
+   * Finds a non-trivial factor of n.
+   * @param n An odd composite with no prime factors below the trial division limit, which is not
+   * a perfect power
+   * @return A factor d of n with 1 < d < n, or null if none was found or the budget of the
+   * thread ran out
+   */
+  static BigInteger findFactor(BigInteger n) {
+    return new QuadraticSieve(n).run();
+  }
+
+  private BigInteger run() {
+    int digits = n.toString().length();
+    int[] params = PARAMETERS[PARAMETERS.length - 1];
+    for (int[] row : PARAMETERS) {
+      if (row[0] >= digits) {
+        params = row;
+        break;
+      }
+    }
+    kn = n.multiply(BigInteger.valueOf(chooseMultiplier()));
+    BigInteger d = buildFactorBase(params[1]);
+    if (d != null || budget.isExhausted())
+      return d;
+    halfWidth = params[2] * BLOCK_SIZE;
+    int largest = primes[primes.length - 1];
+    largePrimeBound = (long) largest * LARGE_PRIME_MULTIPLIER;
+    // Q(x) / a is at most about M * sqrt(kN / 2) over the sieve interval [-M, M)
+    double logMax = log2(halfWidth) + (kn.bitLength() - 1) / 2.0;
+    threshold = (int) (logMax - log2(largePrimeBound)) - SMALL_PRIME_CORRECTION;
+    targetA = sqrt(kn.shiftLeft(1)).divide(BigInteger.valueOf(halfWidth));
+    target = primes.length + 1 + EXTRA_RELATIONS;
+    for (int round = 0; round < MAX_ROUNDS; round++) {
+      if (!collectRelations() || budget.isExhausted())
+        return null;
+      d = solve();
+      if (d != null)
+        return d;
+      synchronized (this) {
+        target = relations.size() + EXTRA_RELATIONS;
+        enough = false;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Picks the multiplier k maximizing the Knuth-Schroeppel function, which estimates how much
+   * the small primes contribute to the smoothness of (ax + b)^2 - kN.
+   * @return The multiplier k
+   */
+  private int chooseMultiplier() {
+    int best = 1;
+    double bestScore = Double.NEGATIVE_INFINITY;
+    for (int k : MULTIPLIERS) {
+      if (budget.isExhausted())
+        break;
+      BigInteger kN = n.multiply(BigInteger.valueOf(k));
+      double score = -0.5 * Math.log(k);
+      int mod8 = kN.mod(BigInteger.valueOf(8)).intValue();
+      if (mod8 == 1)
+        score += 2 * Math.log(2);
+      else if (mod8 == 5)
+        score += Math.log(2);
+      else if (mod8 == 3 || mod8 == 7)
+        score += 0.5 * Math.log(2);
+      for (int p = 3; p < 1000; p += 2) {
+        if (!BigInteger.valueOf(p).isProbablePrime(20))
+          continue;
+        int r = kN.mod(BigInteger.valueOf(p)).intValue();
+        if (r == 0)
+          score += Math.log(p) / p;
+        else if (powMod(r, (p - 1) / 2, p) == 1)
+          score += 2 * Math.log(p) / (p - 1);
+      }
+      if (score > bestScore) {
+        bestScore = score;
+        best = k;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Collects the first size primes p for which kN is a quadratic residue, together with the
+   * square roots of kN modulo p.
+   * @param size The number of primes in the factor base
+   * @return A factor of n if one of the candidate primes divides it, null otherwise
+   */
+  private BigInteger buildFactorBase(int size) {
+    primes = new int[size];
+    sqrtKN = new int[size];
+    logp = new byte[size];
+    primes[0] = 2;
+    sqrtKN[0] = kn.testBit(0) ? 1 : 0;
+    logp[0] = 1;
+    int count = 1;
+    for (int p = 3; count < size; p += 2) {
+      // run gives up on an incomplete base, as it checks the budget again
+      if ((p & 0x3FF) == 1 && budget.isExhausted())
+        return null;
+      if (!BigInteger.valueOf(p).isProbablePrime(20))
+        continue;
+      BigInteger bigP = BigInteger.valueOf(p);
+      if (n.mod(bigP).signum() == 0)
+        return n.equals(bigP) ? null : bigP;
+      int r = kn.mod(bigP).intValue();
+      if (r != 0 && powMod(r, (p - 1) / 2, p) != 1)
+        continue;
+      primes[count] = p;
+      sqrtKN[count] = r == 0 ? 0 : sqrtMod(r, p);
+      logp[count] = (byte) Math.round(log2(p));
+      count++;
+    }
+    return null;
+  }
+
+  /**
+   * Runs sieve workers on every core until enough relations have been found.
+   * @return true if enough relations were found, false if the budget of the calling thread ran
+   * out
+   */
+  private boolean collectRelations() {
+    List<Future<?>> workers = new ArrayList<Future<?>>();
+    for (int i = 0; i < THREADS; i++)
+      workers.add(POOL.submit(new Worker(new Random(31L * i + n.hashCode() + relations.size()))));
+    try {
+      for (Future<?> worker : workers)
+        budget.get(worker);
+    } catch (InterruptedException e) {
+      enough = true; // Signals the workers to stop
+      for (Future<?> worker : workers)
+        worker.cancel(true);
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (TimeoutException e) {
+      enough = true;
+      for (Future<?> worker : workers)
+        worker.cancel(true);
+      return false;
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+    return true;
+  }
+
+  /**
+   * Records a relation. Partial relations are stored by their large prime until a second one
+   * with the same prime turns up, at which point the two are merged into a full relation.
+   * @param r The new relation
+   */
+  private synchronized void addRelation(Relation r) {
+    if (enough || !seenY.add(r.y))
+      return;
+    if (r.largePrime == 1) {
+      relations.add(r);
+    } else {
+      Relation other = partials.get(r.largePrime);
+      if (other == null) {
+        partials.put(r.largePrime, r);
+        return;
+      }
+      int[] factors = Arrays.copyOf(other.factors, other.factors.length + r.factors.length);
+      System.arraycopy(r.factors, 0, factors, other.factors.length, r.factors.length);
+      BigInteger y = other.y.multiply(r.y).mod(n);
+      BigInteger root = other.root.multiply(r.root).multiply(BigInteger.valueOf(r.largePrime))
+          .mod(n);
+      relations.add(new Relation(y, factors, 1, root));
+    }
+    if (relations.size() >= target)
+      enough = true;
+  }
+
+  private synchronized boolean claimA(BigInteger a) {
+    return usedA.add(a);
+  }
+
+  /**
+   * Finds dependencies between the exponent vectors of the relations modulo 2 with Gaussian
+   * elimination, using packed long[] rows, and tries the resulting congruences of squares.
+   * Relations with a prime that occurs an odd number of times in no other relation can never be
+   * part of a dependency, so they are filtered out first to shrink the matrix.
+   * @return A non-trivial factor of n, or null if every dependency gave a trivial one
+   */
+  private BigInteger solve() {
+    List<Relation> rels;
+    synchronized (this) {
+      rels = removeSingletons(new ArrayList<Relation>(relations));
+    }
+    int rows = rels.size(), cols = primes.length + 1; // The last column is the sign
+    int colWords = (cols + 63) >>> 6, rowWords = (rows + 63) >>> 6;
+    long[][] matrix = new long[rows][colWords];
+    long[][] history = new long[rows][rowWords];
+    for (int i = 0; i < rows; i++) {
+      for (int f : rels.get(i).factors)
+        matrix[i][f >>> 6] ^= 1L << f;
+      history[i][i >>> 6] = 1L << i;
+    }
+    int rank = 0;
+    for (int col = 0; col < cols && rank < rows; col++) {
+      int word = col >>> 6;
+      long bit = 1L << col;
+      int pivot = rank;
+      while (pivot < rows && (matrix[pivot][word] & bit) == 0)
+        pivot++;
+      if (pivot == rows)
+        continue;
+      long[] t = matrix[pivot];
+      matrix[pivot] = matrix[rank];
+      matrix[rank] = t;
+      t = history[pivot];
+      history[pivot] = history[rank];
+      history[rank] = t;
+      for (int i = rank + 1; i < rows; i++) {
+        if ((matrix[i][word] & bit) != 0) {
+          for (int w = word; w < colWords; w++)
+            matrix[i][w] ^= matrix[rank][w];
+          for (int w = 0; w < rowWords; w++)
+            history[i][w] ^= history[rank][w];
+        }
+      }
+      rank++;
+    }
+    // Every row below the rank is now zero, so its history is a dependency
+    for (int i = rank; i < rows; i++) {
+      BigInteger d = trySquareRoot(rels, history[i]);
+      if (d != null)
+        return d;
+    }
+    return null;
+  }
+
+  /**
+   * Repeatedly drops relations containing a prime with an odd exponent in no other relation.
+   * @param rels The relations to filter
+   * @return The relations that can take part in a dependency
+   */
+  private List<Relation> removeSingletons(List<Relation> rels) {
+    int[] weight = new int[primes.length + 1];
+    List<int[]> odd = new ArrayList<int[]>();
+    for (Relation r : rels) {
+      int[] counts = new int[primes.length + 1];
+      for (int f : r.factors)
+        counts[f] ^= 1;
+      int size = 0;
+      for (int c : counts)
+        size += c;
+      int[] oddPrimes = new int[size];
+      for (int f = 0, j = 0; f < counts.length; f++) {
+        if (counts[f] == 1) {
+          oddPrimes[j++] = f;
+          weight[f]++;
+        }
+      }
+      odd.add(oddPrimes);
+    }
+    boolean[] removed = new boolean[rels.size()];
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int i = 0; i < rels.size(); i++) {
+        if (removed[i])
+          continue;
+        for (int f : odd.get(i)) {
+          if (weight[f] == 1) {
+            removed[i] = true;
+            for (int g : odd.get(i))
+              weight[g]--;
+            changed = true;
+            break;
+          }
+        }
+      }
+    }
+    List<Relation> kept = new ArrayList<Relation>();
+    for (int i = 0; i < rels.size(); i++) {
+      if (!removed[i])
+        kept.add(rels.get(i));
+    }
+    return kept;
+  }
+
+  /**
+   * Builds the congruence X^2 = Y^2 (mod n) from a set of relations whose exponents sum to an
+   * even vector, and takes gcd(X - Y, n).
+   * @param rels All relations
+   * @param dependency Bit set of the relations in the dependency
+   * @return A non-trivial factor of n, or null if the congruence was trivial
+   */
+  private BigInteger trySquareRoot(List<Relation> rels, long[] dependency) {
+    int[] exponents = new int[primes.length + 1];
+    BigInteger x = BigInteger.ONE, y = BigInteger.ONE;
+    for (int i = 0; i < rels.size(); i++) {
+      if ((dependency[i >>> 6] & (1L << i)) == 0)
+        continue;
+      Relation r = rels.get(i);
+      x = x.multiply(r.y).mod(n);
+      y = y.multiply(r.root).mod(n);
+      for (int f : r.factors)
+        exponents[f]++;
+    }
+    for (int i = 0; i < primes.length; i++) {
+      if (exponents[i] > 0)
+        y = y.multiply(BigInteger.valueOf(primes[i]).modPow(BigInteger.valueOf(exponents[i] / 2), n))
+            .mod(n);
+    }
+    BigInteger d = x.subtract(y).gcd(n);
+    if (d.equals(BigInteger.ONE) || d.equals(n))
+      return null;
+    return d;
+  }
+
+  /**
+   * A relation Y^2 = (-1)^e0 * p1^e1 * ... * root^2 (mod n), where factors lists the factor base
+   * indices of the primes with repetition, and index primes.length stands for -1.
+   */
+  private static final class Relation {
+    final BigInteger y;
+    final int[] factors;
+    final long largePrime;
+    final BigInteger root;
+
+    Relation(BigInteger y, int[] factors, long largePrime, BigInteger root) {
+      this.y = y;
+      this.factors = factors;
+      this.largePrime = largePrime;
+      this.root = root;
+    }
+  }
+
+  /**
+   * Sieves polynomials until enough relations have been found. Each worker owns its sieve block
+   * and root arrays, and only touches shared state through addRelation and claimA.
+   */
+  private final class Worker implements Runnable {
+    private final Random random;
+    private final byte[] sieve = new byte[BLOCK_SIZE];
+    // Roots of Q(x) modulo each prime, in terms of x, and the positions in the current block
+    private final int[] root1 = new int[primes.length], root2 = new int[primes.length];
+    private final int[] next1 = new int[primes.length], next2 = new int[primes.length];
+    private final int[] aInverse = new int[primes.length];
+    private int[][] bAInverse; // 2 * B_l * a^-1 mod p, for updating the roots when b changes
+    private boolean[] dividesA = new boolean[primes.length];
+    private int[] qIndices;
+    private BigInteger a, b, c;
+    private BigInteger[] bTerms;
+
+    Worker(Random random) {
+      this.random = random;
+    }
+
+    @Override
+    public void run() {
+      while (!enough) {
+        if (Thread.currentThread().isInterrupted())
+          return;
+        if (!chooseA())
+          continue;
+        initializeA();
+        int polys = 1 << (qIndices.length - 1);
+        for (int i = 0; i < polys && !enough; i++) {
+          if (budget.isExhausted())
+            return;
+          if (i > 0)
+            nextB(i);
+          c = b.multiply(b).subtract(kn).divide(a);
+          sievePolynomial();
+        }
+      }
+    }
+
+    /**
+     * Chooses a as a product of s factor base primes, close to sqrt(2kN) / M so that the values
+     * of Q(x) / a are as small as possible over the sieve interval. s - 1 primes are picked at
+     * random around the ideal size and the last one is chosen to get as close as possible.
+     * @return true if a new value of a was found
+     */
+    private boolean chooseA() {
+      int bits = targetA.bitLength();
+      int s = Math.max(2, (int) Math.round(bits / 11.0)); // Primes around 2^11
+      double idealLog = (double) bits / s;
+      int lo = 1, hi;
+      while (lo < primes.length && (log2(primes[lo]) < idealLog - 1 || primes[lo] < 50))
+        lo++;
+      hi = lo;
+      while (hi < primes.length - 1 && log2(primes[hi]) < idealLog + 1)
+        hi++;
+      if (hi - lo < 2 * s) {
+        // Small factor base, so take whatever is above the unsieved primes
+        lo = Math.min(lo, primes.length / 2);
+        hi = primes.length - 1;
+      }
+      Arrays.fill(dividesA, false);
+      qIndices = new int[s];
+      BigInteger product = BigInteger.ONE;
+      for (int l = 0; l < s - 1; l++) {
+        int idx;
+        do {
+          idx = lo + random.nextInt(hi - lo);
+        } while (dividesA[idx] || sqrtKN[idx] == 0);
+        dividesA[idx] = true;
+        qIndices[l] = idx;
+        product = product.multiply(BigInteger.valueOf(primes[idx]));
+      }
+      long ideal = targetA.divide(product).longValue();
+      int best = -1;
+      for (int i = 1; i < primes.length; i++) {
+        if (dividesA[i] || sqrtKN[i] == 0 || primes[i] < SMALL_PRIME_LIMIT)
+          continue;
+        if (best < 0 || Math.abs(primes[i] - ideal) < Math.abs(primes[best] - ideal))
+          best = i;
+      }
+      dividesA[best] = true;
+      qIndices[s - 1] = best;
+      a = product.multiply(BigInteger.valueOf(primes[best]));
+      return claimA(a);
+    }
+
+    /**
+     * Computes the terms B_l with B_l^2 = kN (mod q_l) and B_l = 0 (mod q_j) for j != l, the
+     * first b = B_1 + ... + B_s, and the roots of Q(x) modulo every other factor base prime.
+     */
+    private void initializeA() {
+      int s = qIndices.length;
+      bTerms = new BigInteger[s];
+      b = BigInteger.ZERO;
+      for (int l = 0; l < s; l++) {
+        int q = primes[qIndices[l]];
+        BigInteger bigQ = BigInteger.valueOf(q);
+        BigInteger aq = a.divide(bigQ);
+        long gamma = (long) sqrtKN[qIndices[l]] * aq.mod(bigQ).modInverse(bigQ).longValue() % q;
+        if (gamma > q / 2)
+          gamma = q - gamma;
+        bTerms[l] = aq.multiply(BigInteger.valueOf(gamma));
+        b = b.add(bTerms[l]);
+      }
+      bAInverse = new int[s][primes.length];
+      for (int i = 1; i < primes.length; i++) {
+        if (dividesA[i])
+          continue;
+        int p = primes[i];
+        BigInteger bigP = BigInteger.valueOf(p);
+        int inv = (int) modInverse(a.mod(bigP).longValue(), p);
+        aInverse[i] = inv;
+        for (int l = 0; l < s; l++)
+          bAInverse[l][i] = (int) (2 * bTerms[l].mod(bigP).longValue() * inv % p);
+        long bModP = b.mod(bigP).longValue();
+        root1[i] = (int) ((sqrtKN[i] - bModP + p) % p * inv % p);
+        root2[i] = (int) ((2L * p - sqrtKN[i] - bModP) % p * inv % p);
+      }
+    }
+
+    /**
+     * Moves to the i-th value of b. Consecutive values in Gray code order differ in the sign of
+     * a single term B_l, so every root moves by the precomputed 2 * B_l / a.
+     * @param i The index of the new polynomial, from 1 to 2^(s - 1) - 1
+     */
+    private void nextB(int i) {
+      int v = Integer.numberOfTrailingZeros(i) + 1; // B_0 always keeps a positive sign
+      boolean negate = ((i ^ (i >>> 1)) & (1 << (v - 1))) != 0;
+      int[] delta = bAInverse[v];
+      if (negate) {
+        b = b.subtract(bTerms[v].shiftLeft(1));
+      } else {
+        b = b.add(bTerms[v].shiftLeft(1));
+      }
+      for (int j = 1; j < primes.length; j++) {
+        if (dividesA[j])
+          continue;
+        int p = primes[j];
+        if (negate) {
+          root1[j] = (root1[j] + delta[j]) % p;
+          root2[j] = (root2[j] + delta[j]) % p;
+        } else {
+          root1[j] = (root1[j] - delta[j] + p) % p;
+          root2[j] = (root2[j] - delta[j] + p) % p;
+        }
+      }
+    }
+
+    /**
+     * Sieves the interval [-M, M) block by block and trial divides every position whose summed
+     * logarithms reach the threshold.
+     */
+    private void sievePolynomial() {
+      for (int i = 1; i < primes.length; i++) {
+        if (dividesA[i])
+          continue;
+        int p = primes[i];
+        next1[i] = (int) ((root1[i] + (long) halfWidth) % p);
+        next2[i] = (int) ((root2[i] + (long) halfWidth) % p);
+      }
+      for (int blockStart = 0; blockStart < 2 * halfWidth; blockStart += BLOCK_SIZE) {
+        if (budget.isExhausted())
+          return;
+        Arrays.fill(sieve, (byte) 0);
+        for (int i = 1; i < primes.length; i++) {
+          int p = primes[i];
+          if (dividesA[i] || p < SMALL_PRIME_LIMIT)
+            continue;
+          byte lp = logp[i];
+          int r = next1[i];
+          for (; r < BLOCK_SIZE; r += p)
+            sieve[r] += lp;
+          next1[i] = r - BLOCK_SIZE;
+          if (root1[i] != root2[i]) {
+            r = next2[i];
+            for (; r < BLOCK_SIZE; r += p)
+              sieve[r] += lp;
+            next2[i] = r - BLOCK_SIZE;
+          }
+        }
+        for (int j = 0; j < BLOCK_SIZE; j++) {
+          if ((sieve[j] & 0xFF) >= threshold)
+            trialDivide(blockStart + j - halfWidth);
+        }
+      }
+    }
+
+    /**
+     * Factors Q(x) / a = ax^2 + 2bx + c over the factor base, using the roots to skip primes
+     * that cannot divide it, and records a relation if what is left is 1 or a single large prime.
+     * @param x The position in the sieve interval
+     */
+    private void trialDivide(int x) {
+      BigInteger bigX = BigInteger.valueOf(x);
+      BigInteger v = a.multiply(bigX).add(b.shiftLeft(1)).multiply(bigX).add(c);
+      if (v.signum() == 0)
+        return;
+      int[] factors = new int[64];
+      int count = 0;
+      if (v.signum() < 0) {
+        factors[count++] = primes.length;
+        v = v.negate();
+      }
+      int twos = v.getLowestSetBit();
+      v = v.shiftRight(twos);
+      for (int t = 0; t < twos; t++) {
+        if (count == factors.length)
+          factors = Arrays.copyOf(factors, count * 2);
+        factors[count++] = 0;
+      }
+      for (int idx : qIndices) {
+        if (count == factors.length)
+          factors = Arrays.copyOf(factors, count * 2);
+        factors[count++] = idx; // Every q divides a exactly once
+      }
+      for (int i = 1; i < primes.length && !v.equals(BigInteger.ONE); i++) {
+        int p = primes[i];
+        if (!dividesA[i]) {
+          int xm = Math.floorMod(x, p);
+          if (xm != root1[i] && xm != root2[i])
+            continue;
+        }
+        BigInteger bigP = BigInteger.valueOf(p);
+        BigInteger[] qr = v.divideAndRemainder(bigP);
+        while (qr[1].signum() == 0) {
+          v = qr[0];
+          if (count == factors.length)
+            factors = Arrays.copyOf(factors, count * 2);
+          factors[count++] = i;
+          qr = v.divideAndRemainder(bigP);
+        }
+      }
+      if (v.bitLength() > 62 || v.longValue() >= largePrimeBound)
+        return;
+      addRelation(new Relation(a.multiply(bigX).add(b).mod(n), Arrays.copyOf(factors, count),
+          v.longValue(), BigInteger.ONE));
+    }
+  }
+
+  private static double log2(double x) {
+    return Math.log(x) / Math.log(2);
+  }
+
+  /**
+   * Computes the integer square root of a positive n with Newton's method.
+   */
+  private static BigInteger sqrt(BigInteger n) {
+    BigInteger x = BigInteger.ONE.shiftLeft((n.bitLength() + 1) / 2);
+    while (true) {
+      BigInteger y = x.add(n.divide(x)).shiftRight(1);
+      if (y.compareTo(x) >= 0)
+        return x;
+      x = y;
+    }
+  }
+
+  private static long powMod(long base, long exp, long mod) {
+    long r = 1;
+    base %= mod;
+    while (exp > 0) {
+      if ((exp & 1) == 1)
+        r = r * base % mod;
+      base = base * base % mod;
+      exp >>= 1;
+    }
+    return r;
+  }
+
+  private static long modInverse(long a, long mod) {
+    return powMod(a, mod - 2, mod);
+  }
+
+  /**
+   * Computes a square root of a quadratic residue r modulo an odd prime p with the
+   * Tonelli-Shanks algorithm.
+   */
+  private static int sqrtMod(int r, int p) {
+    if (p % 4 == 3)
+      return (int) powMod(r, (p + 1) / 4, p);
+    // p - 1 = q * 2^s with q odd
+    int s = Integer.numberOfTrailingZeros(p - 1);
+    long q = (p - 1) >> s;
+    long z = 2;
+    while (powMod(z, (p - 1) / 2, p) != p - 1)
+      z++;
+    long m = s, c = powMod(z, q, p), t = powMod(r, q, p), root = powMod(r, (q + 1) / 2, p);
+    while (t != 1) {
+      int i = 0;
+      for (long t2 = t; t2 != 1; t2 = t2 * t2 % p)
+        i++;
+      long bb = c;
+      for (long j = 0; j < m - i - 1; j++)
+        bb = bb * bb % p;
+      m = i;
+      c = bb * bb % p;
+      t = t * c % p;
+      root = root * bb % p;
+    }
+    return (int) root;
+  }
+}
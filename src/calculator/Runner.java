@@ -1,10 +1,80 @@
 package calculator;
 
+import java.awt.GraphicsEnvironment;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
 import javax.swing.SwingUtilities;
 
 public class Runner {
-    public static void main(String[] args) {
-        CalcInterface calc = new CalcInterface();
-        SwingUtilities.invokeLater(calc);
+    private static final int DEFAULT_PORT = 8765;
+    private static final String USAGE =
+            "Usage: Runner [--batch] [--threads n] [--time-limit millis] [file | -]\n"
+            + "       Runner --serve [port]";
+
+    /**
+     * Opens the calculator window, or with --batch, or when there is no display, evaluates
+     * commands from a file or standard input and prints the results to standard output. With
+     * --serve, runs the local HTTP service instead, see CalcServer.
+     * Usage: Runner [--batch] [--threads n] [--time-limit millis] [file | -]
+     *        Runner --serve [port]
+     * An option missing its number prints the usage and exits with status 2.
+     */
+    public static void main(String[] args) throws IOException {
+        boolean batch = GraphicsEnvironment.isHeadless();
+        int threads = Runtime.getRuntime().availableProcessors();
+        long timeLimit = 0;
+        String file = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--serve")) {
+                int port = i + 1 < args.length
+                        ? Integer.parseInt(optionValue(args, i)) : DEFAULT_PORT;
+                new CalcServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port)).start();
+                return;
+            }
+            if (args[i].equals("--batch") || args[i].equals("-"))
+                batch = true;
+            else if (args[i].equals("--threads"))
+                threads = Math.max(1, Integer.parseInt(optionValue(args, i++)));
+            else if (args[i].equals("--time-limit"))
+                timeLimit = Long.parseLong(optionValue(args, i++));
+            else
+                file = args[i];
+        }
+        if (!batch && file == null) {
+            CalcInterface calc = new CalcInterface();
+            SwingUtilities.invokeLater(calc);
+            return;
+        }
+        try (BufferedReader in = file == null
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8);
+             FileChannel out = new FileOutputStream(FileDescriptor.out).getChannel()) {
+            new BatchRunner(threads, timeLimit).run(in, out);
+        }
+    }
+
+    /**
+     * Returns the number following the option at args[i], or prints the usage and exits if
+     * there is none.
+     * @param args The command line
+     * @param i The index of the option
+     * @return The value, up to 9 digits so that it fits an int
+     */
+    private static String optionValue(String[] args, int i) {
+        if (i + 1 < args.length && args[i + 1].matches("[0-9]{1,9}"))
+            return args[i + 1];
+        System.err.println(args[i] + " needs a number\n" + USAGE);
+        System.exit(2);
+        return null;
     }
 }
@@ -0,0 +1,154 @@
+package calculator;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+final class SetPartitionTable {
+
+  /**
+   * Bell numbers and Stirling numbers of the second kind without keeping the whole triangle of
+   * S(n, k). Bell numbers come from the Bell triangle, where each row starts with the last entry
+   * of the row above and every further entry is its left neighbour plus the entry above that
+   * neighbour, so only the latest row is kept and B(n) is the first entry of row n. Rows of
+   * S(n, k) are kept in a small least recently used cache; a missing row is generated from the
+   * nearest cached row below it, and long rows are generated in parallel since every entry of a
+   * row depends only on the row above.
+   *
+   * The table may be shared between threads. Readers never wait: the Bell numbers are an array
+   * that is copied when extended and published through a volatile field, and the rows of S(n, k)
+   * sit in a concurrent map with a use stamp instead of an access-ordered map, whose reads would
+   * reorder it. Only threads that extend the Bell numbers or add a row take a lock.
+   */
+
+  // Rows at least this long are generated in parallel
+  private static final int PARALLEL_ROW = 256;
+
+  private volatile BigInteger[] bell = {BigInteger.ONE};
+  private BigInteger[] bellRow = {BigInteger.ONE}; // Guarded by bellLock
+  private final Object bellLock = new Object();
+  private final Map<Integer, Row> stirlingRows = new ConcurrentHashMap<Integer, Row>();
+  private final AtomicLong clock = new AtomicLong();
+  private final int cachedRows;
+
+  /**
+   * A cached row of S(n, k) with the time it was last used, by the clock of the table.
+   */
+  private static final class Row {
+    final BigInteger[] values;
+    volatile long used;
+
+    Row(BigInteger[] values, long used) {
+      this.values = values;
+      this.used = used;
+    }
+  }
+
+  /**
+   * @param cachedRows The number of rows of S(n, k) to keep
+   */
+  SetPartitionTable(int cachedRows) {
+    this.cachedRows = cachedRows;
+  }
+
+  /**
+   * Computes the n-th Bell number, extending the Bell triangle row by row from the last one
+   * computed.
+   * @param n Any non-negative integer
+   * @return B(n), or null if the budget of the thread ran out
+   */
+  BigInteger bell(int n) {
+    BigInteger[] numbers = bell;
+    if (n < numbers.length)
+      return numbers[n];
+    synchronized (bellLock) {
+      numbers = bell;
+      if (n < numbers.length)
+        return numbers[n];
+      int size = numbers.length;
+      numbers = Arrays.copyOf(numbers, n + 1);
+      for (; size <= n; size++) {
+        if (Budget.current().isExhausted()) {
+          bell = Arrays.copyOf(numbers, size);
+          return null;
+        }
+        BigInteger[] next = new BigInteger[bellRow.length + 1];
+        next[0] = bellRow[bellRow.length - 1];
+        for (int j = 1; j < next.length; j++)
+          next[j] = next[j - 1].add(bellRow[j - 1]);
+        bellRow = next;
+        numbers[size] = next[0];
+      }
+      bell = numbers;
+      return numbers[n];
+    }
+  }
+
+  /**
+   * Computes the Stirling number of the second kind S(n, k) from row n of the triangle.
+   * @param n Any non-negative integer
+   * @param k An integer from 0 to n
+   * @return S(n, k), or null if the budget of the thread ran out
+   */
+  BigInteger stirling(int n, int k) {
+    BigInteger[] row = row(n);
+    return row == null ? null : row[k];
+  }
+
+  /**
+   * Returns row n of S(n, k), generating it from the nearest cached row below it with
+   * S(n, k) = k * S(n - 1, k) + S(n - 1, k - 1), or null if the budget of the thread ran out.
+   */
+  private BigInteger[] row(int n) {
+    Row cached = stirlingRows.get(n);
+    if (cached != null) {
+      cached.used = clock.incrementAndGet();
+      return cached.values;
+    }
+    int start = 0;
+    BigInteger[] row = {BigInteger.ONE};
+    for (Map.Entry<Integer, Row> entry : stirlingRows.entrySet()) {
+      if (entry.getKey() < n && entry.getKey() > start) {
+        start = entry.getKey();
+        row = entry.getValue().values;
+      }
+    }
+    for (int i = start + 1; i <= n; i++) {
+      if (Budget.current().isExhausted())
+        return null;
+      row = nextRow(row);
+    }
+    add(n, row);
+    return row;
+  }
+
+  /**
+   * Caches a row, evicting the least recently used rows beyond cachedRows.
+   */
+  private synchronized void add(int n, BigInteger[] row) {
+    stirlingRows.put(n, new Row(row, clock.incrementAndGet()));
+    while (stirlingRows.size() > cachedRows) {
+      Map.Entry<Integer, Row> eldest = null;
+      for (Map.Entry<Integer, Row> entry : stirlingRows.entrySet()) {
+        if (eldest == null || entry.getValue().used < eldest.getValue().used)
+          eldest = entry;
+      }
+      stirlingRows.remove(eldest.getKey());
+    }
+  }
+
+  private static BigInteger[] nextRow(BigInteger[] above) {
+    BigInteger[] row = new BigInteger[above.length + 1];
+    row[0] = BigInteger.ZERO;
+    row[above.length] = BigInteger.ONE;
+    IntStream columns = IntStream.range(1, above.length);
+    if (above.length >= PARALLEL_ROW)
+      columns = columns.parallel();
+    columns.forEach(k ->
+        row[k] = above[k].multiply(BigInteger.valueOf(k)).add(above[k - 1]));
+    return row;
+  }
+}